@@ -0,0 +1,90 @@
+package fr.delthas.skype;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * A log handler that hands records over to a background thread, which publishes them to another handler in batches and flushes it once per batch.
+ * <p>
+ * Logging threads never block on the delegate handler: if the queue is full, records are dropped and a warning with the number of dropped records is
+ * written with the next batch.
+ */
+final class AsyncLogHandler extends Handler {
+  private static final int QUEUE_CAPACITY = 16384;
+  private static final int BATCH_SIZE = 512;
+  private final Handler delegate;
+  private final BlockingQueue<LogRecord> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private final AtomicLong dropped = new AtomicLong();
+  private final Thread writerThread;
+  private volatile boolean closed = false;
+  
+  AsyncLogHandler(Handler delegate) {
+    this.delegate = delegate;
+    writerThread = Threads.newThread(() -> {
+      List<LogRecord> batch = new ArrayList<>(BATCH_SIZE);
+      while (true) {
+        try {
+          batch.add(queue.take());
+        } catch (InterruptedException e) {
+          return;
+        }
+        queue.drainTo(batch, BATCH_SIZE - 1);
+        write(batch);
+        batch.clear();
+      }
+    }, "Skype-Log-Thread", true);
+    writerThread.start();
+  }
+  
+  @Override
+  public void publish(LogRecord record) {
+    if (closed || !isLoggable(record)) {
+      return;
+    }
+    // the caller is inferred lazily from the current stack: do it before leaving the logging thread
+    record.getSourceClassName();
+    if (!queue.offer(record)) {
+      dropped.incrementAndGet();
+    }
+  }
+  
+  @Override
+  public void flush() {
+    delegate.flush();
+  }
+  
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    writerThread.interrupt();
+    try {
+      writerThread.join(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    List<LogRecord> remaining = new ArrayList<>(queue.size());
+    queue.drainTo(remaining);
+    write(remaining);
+    delegate.close();
+  }
+  
+  private void write(List<LogRecord> batch) {
+    long droppedCount = dropped.getAndSet(0);
+    if (droppedCount > 0) {
+      delegate.publish(new LogRecord(Level.WARNING, "Log queue full, dropped " + droppedCount + " log records"));
+    }
+    for (LogRecord record : batch) {
+      delegate.publish(record);
+    }
+    delegate.flush();
+  }
+}
@@ -0,0 +1,151 @@
+package fr.delthas.skype;
+
+import org.jsoup.HttpStatusException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Runs an HTTP action on many items, with a bounded number of concurrent calls on the {@link IoExecutor}.
+ * <p>
+ * Calls rejected because of the load of the server (HTTP 429 or 5xx) are retried after an exponentially increasing delay. A 429 also pauses the
+ * dispatch of all the other calls of the batch for that delay, so that the batch slows down to the rate accepted by the server.
+ *
+ * @param <T> The type of the items.
+ */
+final class BatchExecutor<T> {
+  private static final long INITIAL_RETRY_DELAY = 1000;
+  private static final long MAX_RETRY_DELAY = 30000;
+  private static final Throwable DONE = new Throwable("done");
+  private final List<T> items;
+  private final Action<T> action;
+  private final int maxAttempts;
+  private final long callTimeout;
+  private final Semaphore inFlight;
+  private final DelayQueue<Attempt> ready = new DelayQueue<>();
+  // null while the item is pending, DONE if its action succeeded, its error otherwise
+  private final AtomicReferenceArray<Throwable> outcomes;
+  private volatile long pausedUntil = System.nanoTime();
+  
+  BatchExecutor(List<T> items, Action<T> action, int parallelism, int maxAttempts, long callTimeout) {
+    this.items = items;
+    this.action = action;
+    this.maxAttempts = maxAttempts;
+    this.callTimeout = callTimeout;
+    inFlight = new Semaphore(parallelism);
+    outcomes = new AtomicReferenceArray<>(items.size());
+  }
+  
+  /**
+   * Runs the action on all items, blocking until each has succeeded or definitely failed.
+   * <p>
+   * If the calling thread is interrupted, the items not yet done are reported as failed with an {@link InterruptedIOException}, and the
+   * interrupt status is set again.
+   */
+  BatchResult<T> run() {
+    for (int i = 0; i < items.size(); i++) {
+      ready.add(new Attempt(i, 1, 0));
+    }
+    try {
+      for (int remaining = items.size(); remaining > 0; ) {
+        Attempt attempt = ready.take();
+        if (attempt.index < 0) {
+          // an item is done
+          remaining--;
+          continue;
+        }
+        inFlight.acquire();
+        long pause = pausedUntil - System.nanoTime();
+        if (pause > 0) {
+          TimeUnit.NANOSECONDS.sleep(pause);
+        }
+        dispatch(attempt);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      for (int i = 0; i < items.size(); i++) {
+        outcomes.compareAndSet(i, null, new InterruptedIOException("Interrupted before the batch was done"));
+      }
+    }
+    List<T> succeeded = new ArrayList<>();
+    Map<T, Throwable> failed = new LinkedHashMap<>();
+    for (int i = 0; i < items.size(); i++) {
+      Throwable outcome = outcomes.get(i);
+      if (outcome == DONE) {
+        succeeded.add(items.get(i));
+      } else {
+        failed.put(items.get(i), outcome);
+      }
+    }
+    return new BatchResult<>(succeeded, failed);
+  }
+  
+  private void dispatch(Attempt attempt) {
+    T item = items.get(attempt.index);
+    IoExecutor.submit(() -> {
+      action.run(item);
+      return null;
+    }, callTimeout).whenComplete((r, e) -> {
+      inFlight.release();
+      if (e == null) {
+        done(attempt.index, DONE);
+        return;
+      }
+      int status = e instanceof HttpStatusException ? ((HttpStatusException) e).getStatusCode() : 0;
+      if ((status == 429 || status >= 500) && attempt.number < maxAttempts) {
+        long delay = Scheduler.jitter(Math.min(MAX_RETRY_DELAY, INITIAL_RETRY_DELAY << (attempt.number - 1)), 0.2);
+        if (status == 429) {
+          pausedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        }
+        ready.add(new Attempt(attempt.index, attempt.number + 1, delay));
+        return;
+      }
+      done(attempt.index, e);
+    });
+  }
+  
+  private void done(int index, Throwable outcome) {
+    if (outcomes.compareAndSet(index, null, outcome)) {
+      ready.add(new Attempt(-1, 0, 0));
+    }
+  }
+  
+  /**
+   * An HTTP action done on each item of a batch.
+   */
+  @FunctionalInterface
+  interface Action<T> {
+    void run(T item) throws IOException;
+  }
+  
+  private static final class Attempt implements Delayed {
+    final int index;
+    final int number;
+    final long time;
+  
+    Attempt(int index, int number, long delayMillis) {
+      this.index = index;
+      this.number = number;
+      time = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    }
+  
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(time - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+  
+    @Override
+    public int compareTo(Delayed o) {
+      return Long.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
+    }
+  }
+}
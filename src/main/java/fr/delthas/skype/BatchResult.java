@@ -0,0 +1,61 @@
+package fr.delthas.skype;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of an operation done on many items at once, such as a broadcast message: the items for which it succeeded, and the error for each
+ * item for which it failed.
+ *
+ * @param <T> The type of the items.
+ */
+public final class BatchResult<T> {
+  private final List<T> succeeded;
+  private final Map<T, Throwable> failed;
+  
+  BatchResult(List<T> succeeded, Map<T, Throwable> failed) {
+    this.succeeded = Collections.unmodifiableList(succeeded);
+    this.failed = Collections.unmodifiableMap(failed);
+  }
+  
+  /**
+   * @return The items for which the operation succeeded, in the order they were passed (immutable).
+   */
+  public List<T> getSucceeded() {
+    return succeeded;
+  }
+  
+  /**
+   * @return The error for each item for which the operation failed, in the order they were passed (immutable).
+   */
+  public Map<T, Throwable> getFailed() {
+    return failed;
+  }
+  
+  /**
+   * @return The number of items for which the operation succeeded.
+   */
+  public int getSuccessCount() {
+    return succeeded.size();
+  }
+  
+  /**
+   * @return The number of items for which the operation failed.
+   */
+  public int getFailureCount() {
+    return failed.size();
+  }
+  
+  /**
+   * @return true if the operation succeeded for all items.
+   */
+  public boolean isSuccessful() {
+    return failed.isEmpty();
+  }
+  
+  @Override
+  public String toString() {
+    return "Batch Result: succeeded: " + succeeded.size() + " failed: " + failed.size();
+  }
+}
@@ -0,0 +1,44 @@
+package fr.delthas.skype;
+
+/**
+ * An immutable message of a conversation with a user or a group, as kept in the message history.
+ *
+ * @see Skype#setMessageHistory(int, long)
+ */
+public final class ChatMessage {
+  private final User sender;
+  private final String message;
+  private final long time;
+  
+  ChatMessage(User sender, String message, long time) {
+    this.sender = sender;
+    this.message = message;
+    this.time = time;
+  }
+  
+  /**
+   * @return The sender of the message, which is the Skype account itself for sent messages.
+   */
+  public User getSender() {
+    return sender;
+  }
+  
+  /**
+   * @return The message, as passed to the message listeners or sent.
+   */
+  public String getMessage() {
+    return message;
+  }
+  
+  /**
+   * @return The time at which the message was received or sent, in milliseconds since the epoch.
+   */
+  public long getTime() {
+    return time;
+  }
+  
+  @Override
+  public String toString() {
+    return "Chat Message: Sender: " + sender.getUsername() + " time: " + time + " message: " + message;
+  }
+}
@@ -0,0 +1,62 @@
+package fr.delthas.skype;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The contacts of the account, indexed by presence.
+ * <p>
+ * It can be read from any thread. It is updated with the lock on the user held, so that the presence of a user can't change between reading it
+ * and updating the index.
+ */
+final class ContactIndex {
+  private final Set<User> contacts = ConcurrentHashMap.newKeySet();
+  private final Map<Presence, Set<User>> contactsByPresence = new EnumMap<>(Presence.class);
+  
+  ContactIndex() {
+    for (Presence presence : Presence.values()) {
+      contactsByPresence.put(presence, ConcurrentHashMap.newKeySet());
+    }
+  }
+  
+  void add(User user) {
+    synchronized (user) {
+      if (contacts.add(user)) {
+        contactsByPresence.get(user.getPresence()).add(user);
+      }
+    }
+  }
+  
+  void remove(User user) {
+    synchronized (user) {
+      if (contacts.remove(user)) {
+        contactsByPresence.get(user.getPresence()).remove(user);
+      }
+    }
+  }
+  
+  // called with the lock on the user held
+  void presenceChanged(User user, Presence oldPresence, Presence presence) {
+    if (contacts.contains(user)) {
+      contactsByPresence.get(oldPresence).remove(user);
+      contactsByPresence.get(presence).add(user);
+    }
+  }
+  
+  List<User> getContacts() {
+    return Collections.unmodifiableList(new ArrayList<>(contacts));
+  }
+  
+  List<User> getContacts(Presence presence) {
+    return Collections.unmodifiableList(new ArrayList<>(contactsByPresence.get(presence)));
+  }
+  
+  int getCount(Presence presence) {
+    return contactsByPresence.get(presence).size();
+  }
+}
@@ -1,5 +1,7 @@
 package fr.delthas.skype;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * A contact request from a Skype account.
  */
@@ -7,7 +9,7 @@ public class ContactRequest {
   private Skype skype;
   private String username;
   private String greeting;
-  private boolean processed = false;
+  private volatile boolean processed = false;
   
   ContactRequest(Skype skype, String username, String greeting) {
     this.skype = skype;
@@ -17,23 +19,71 @@ public class ContactRequest {
   
   /**
    * Accepts the contact request. Ignored if already accepted or declined.
+   * <p>
+   * If the server rejects it, the rejection is only logged and the request can be processed again: use {@link #acceptAsync()} to be notified
+   * of it.
    */
   public void accept() {
     if (processed) {
       return;
     }
-    skype.acceptContactRequest(this);
-    processed = true;
+    if (skype.acceptContactRequest(this)) {
+      processed = true;
+    }
   }
   
   /**
    * Declines the contact request. Ignored if already accepted or declined.
+   * <p>
+   * If the server rejects it, the rejection is only logged and the request can be processed again: use {@link #declineAsync()} to be notified
+   * of it.
    */
   public void decline() {
     if (processed) {
       return;
     }
-    skype.declineContactRequest(this);
+    if (skype.declineContactRequest(this)) {
+      processed = true;
+    }
+  }
+  
+  /**
+   * Accepts the contact request asynchronously. Ignored if already accepted or declined.
+   * <p>
+   * An error only fails the returned future: it doesn't disconnect the Skype interface, and the request can be processed again.
+   *
+   * @return A future completed when the request is accepted, or completed exceptionally with an {@link java.io.IOException} or a
+   * {@link java.util.concurrent.TimeoutException}.
+   * @see Skype#setAsyncCallTimeout(long)
+   */
+  public CompletableFuture<Void> acceptAsync() {
+    if (processed) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return skype.acceptContactRequestAsync(this).thenRun(() -> processed = true);
+  }
+  
+  /**
+   * Declines the contact request asynchronously. Ignored if already accepted or declined.
+   * <p>
+   * An error only fails the returned future: it doesn't disconnect the Skype interface, and the request can be processed again.
+   *
+   * @return A future completed when the request is declined, or completed exceptionally with an {@link java.io.IOException} or a
+   * {@link java.util.concurrent.TimeoutException}.
+   * @see Skype#setAsyncCallTimeout(long)
+   */
+  public CompletableFuture<Void> declineAsync() {
+    if (processed) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return skype.declineContactRequestAsync(this).thenRun(() -> processed = true);
+  }
+  
+  boolean isProcessed() {
+    return processed;
+  }
+  
+  void setProcessed() {
     processed = true;
   }
   
@@ -0,0 +1,127 @@
+package fr.delthas.skype;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Decodes items in parallel on a process-wide pool, and hands them to a handler on the calling thread in order.
+ * <p>
+ * Items are submitted with a key: with global order, items are handled in submission order; with per-key order, an item can be handled before
+ * items submitted earlier with other keys, but never before an earlier item with the same key. Items with a null key are barriers: they are
+ * handled after all items submitted before them and before all items submitted after them.
+ * <p>
+ * Decoding must not change any shared state: everything else is done by the handler, which is always called from the thread using the pipeline.
+ *
+ * @param <T> The type of the items.
+ */
+final class DecodePipeline<T> {
+  private static final ExecutorService pool = createPool();
+  private final int window;
+  private final boolean perKeyOrder;
+  private final Consumer<T> decoder;
+  private final Handler<T> handler;
+  // items submitted but not handled yet, in submission order; only accessed from the thread using the pipeline
+  private final ArrayDeque<Entry<T>> pending = new ArrayDeque<>();
+  // released each time an item is decoded
+  private final Semaphore decoded = new Semaphore(0);
+  
+  DecodePipeline(int window, boolean perKeyOrder, Consumer<T> decoder, Handler<T> handler) {
+    this.window = window;
+    this.perKeyOrder = perKeyOrder;
+    this.decoder = decoder;
+    this.handler = handler;
+  }
+  
+  private static ExecutorService createPool() {
+    AtomicInteger threadCount = new AtomicInteger();
+    // at least two threads, so that a packet slow to decode doesn't hold up the packets of other conversations
+    int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            r -> Threads.newThread(r, "Skype-Decode-Thread-" + threadCount.incrementAndGet(), true));
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+  
+  boolean isEmpty() {
+    return pending.isEmpty();
+  }
+  
+  boolean isFull() {
+    return pending.size() >= window;
+  }
+  
+  void submit(T item, Object key) {
+    Entry<T> entry = new Entry<>(item, key);
+    pending.add(entry);
+    pool.execute(() -> {
+      try {
+        decoder.accept(item);
+      } finally {
+        entry.decoded = true;
+        decoded.release();
+      }
+    });
+  }
+  
+  /**
+   * Handles the decoded items that can be handled without breaking the order.
+   *
+   * @return true if at least one item was handled.
+   */
+  boolean handleReady() throws IOException {
+    boolean handled = false;
+    Set<Object> blockedKeys = perKeyOrder ? new HashSet<>() : null;
+    Iterator<Entry<T>> it = pending.iterator();
+    while (it.hasNext()) {
+      Entry<T> entry = it.next();
+      boolean barrier = entry.key == null;
+      // a barrier can only be handled once all the items before it are handled
+      if (entry.decoded && (blockedKeys == null || (barrier ? blockedKeys.isEmpty() : !blockedKeys.contains(entry.key)))) {
+        it.remove();
+        handled = true;
+        handler.handle(entry.item);
+        continue;
+      }
+      if (blockedKeys == null || barrier) {
+        // nothing after this item can be handled before it
+        break;
+      }
+      blockedKeys.add(entry.key);
+    }
+    return handled;
+  }
+  
+  /**
+   * Waits until at least one more item is decoded.
+   */
+  void awaitDecoded() throws InterruptedException {
+    decoded.acquire();
+    decoded.drainPermits();
+  }
+  
+  @FunctionalInterface
+  interface Handler<T> {
+    void handle(T item) throws IOException;
+  }
+  
+  private static final class Entry<T> {
+    final T item;
+    final Object key;
+    volatile boolean decoded;
+  
+    Entry(T item, Object key) {
+      this.item = item;
+      this.key = key;
+    }
+  }
+}
@@ -0,0 +1,321 @@
+package fr.delthas.skype;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * A publisher of events of a Skype interface, with backpressure: events are delivered to a subscriber only as it requests them.
+ * <p>
+ * The {@link Subscriber} and {@link Subscription} interfaces have the same methods as those of {@code java.util.concurrent.Flow} (and of Reactive
+ * Streams), so that they can be adapted with a one-line wrapper, while the library still runs on Java 8.
+ * <p>
+ * Each subscriber has its own bounded buffer, which holds the events it hasn't requested yet. What happens when this buffer is full is chosen
+ * with an {@link OverflowStrategy} when subscribing. Events are delivered either on the thread that publishes them (usually the receiver thread)
+ * or on the thread calling {@link Subscription#request(long)}, one at a time. Subscriptions stay valid across connections, and are never
+ * completed.
+ *
+ * @param <T> The type of the published events.
+ */
+public final class EventPublisher<T> {
+  /**
+   * The default size of the buffer of each subscriber.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 256;
+  private final Function<? super T, ?> keyFunction;
+  private final OverflowStrategy defaultStrategy;
+  private final List<BufferedSubscription<T>> subscriptions = new CopyOnWriteArrayList<>();
+  
+  EventPublisher(Function<? super T, ?> keyFunction, OverflowStrategy defaultStrategy) {
+    this.keyFunction = keyFunction;
+    this.defaultStrategy = defaultStrategy;
+  }
+  
+  /**
+   * Subscribes to the events of this publisher with a buffer of {@link #DEFAULT_BUFFER_SIZE} events and the default overflow strategy of this
+   * publisher.
+   *
+   * @param subscriber The subscriber to add.
+   */
+  public void subscribe(Subscriber<? super T> subscriber) {
+    subscribe(subscriber, DEFAULT_BUFFER_SIZE, defaultStrategy);
+  }
+  
+  /**
+   * Subscribes to the events of this publisher.
+   *
+   * @param subscriber The subscriber to add.
+   * @param bufferSize The maximum number of events buffered for this subscriber, until it requests them.
+   * @param strategy   What to do when an event is published while the buffer is full.
+   */
+  public void subscribe(Subscriber<? super T> subscriber, int bufferSize, OverflowStrategy strategy) {
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("The buffer size must be at least 1");
+    }
+    BufferedSubscription<T> subscription = new BufferedSubscription<>(this, subscriber, bufferSize, strategy);
+    subscriptions.add(subscription);
+    subscriber.onSubscribe(subscription);
+  }
+  
+  boolean hasSubscribers() {
+    return !subscriptions.isEmpty();
+  }
+  
+  void publish(T event) {
+    for (BufferedSubscription<T> subscription : subscriptions) {
+      subscription.offer(event);
+    }
+  }
+  
+  /**
+   * What to do when an event is published while the buffer of a subscriber is full.
+   */
+  public enum OverflowStrategy {
+    /**
+     * Drop the oldest buffered event to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Drop the new event.
+     */
+    DROP_LATEST,
+    /**
+     * Keep only the latest event of each key (for example, the latest presence change of each user), replacing any buffered event with the same
+     * key, then drop the oldest buffered event if the buffer is still full.
+     */
+    LATEST_PER_KEY,
+    /**
+     * Block the publishing thread until the subscriber requests more events. This slows down the receiving of all events of the Skype interface,
+     * and must not be used if the subscriber requests events from a listener or blocks on the Skype interface.
+     */
+    BLOCK
+  }
+  
+  /**
+   * A receiver of events, with the same methods as {@code java.util.concurrent.Flow.Subscriber}.
+   *
+   * @param <T> The type of the received events.
+   */
+  public interface Subscriber<T> {
+    /**
+     * Called once when subscribing, before any other method.
+     *
+     * @param subscription The subscription, used to request events or cancel.
+     */
+    void onSubscribe(Subscription subscription);
+  
+    /**
+     * Called with the next event, only when requested.
+     *
+     * @param item The event.
+     */
+    void onNext(T item);
+  
+    /**
+     * Called when the subscription fails, after which no other method is called.
+     *
+     * @param throwable The error.
+     */
+    void onError(Throwable throwable);
+  
+    /**
+     * Called when no more events will be published, after which no other method is called.
+     */
+    void onComplete();
+  }
+  
+  /**
+   * A link between a publisher and a subscriber, with the same methods as {@code java.util.concurrent.Flow.Subscription}.
+   */
+  public interface Subscription {
+    /**
+     * Requests more events. If n is not positive, the subscription is cancelled and {@link Subscriber#onError(Throwable)} is called.
+     *
+     * @param n The number of additional events to deliver.
+     */
+    void request(long n);
+  
+    /**
+     * Stops the delivery of events, possibly after some events already being delivered, and drops the buffered events.
+     */
+    void cancel();
+  }
+  
+  private static final class BufferedSubscription<T> implements Subscription {
+    private final EventPublisher<T> publisher;
+    private final Subscriber<? super T> subscriber;
+    private final int bufferSize;
+    private final OverflowStrategy strategy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    // counts the pending drain requests: only the thread that increments it from 0 delivers events
+    private final AtomicInteger wip = new AtomicInteger();
+    // buffered events, either in a queue or by key, guarded by lock
+    private final ArrayDeque<T> queue;
+    private final LinkedHashMap<Object, T> latest;
+    private long requested;
+    private boolean cancelled;
+    private Throwable error;
+  
+    BufferedSubscription(EventPublisher<T> publisher, Subscriber<? super T> subscriber, int bufferSize, OverflowStrategy strategy) {
+      this.publisher = publisher;
+      this.subscriber = subscriber;
+      this.bufferSize = bufferSize;
+      this.strategy = strategy;
+      if (strategy == OverflowStrategy.LATEST_PER_KEY) {
+        queue = null;
+        latest = new LinkedHashMap<>();
+      } else {
+        queue = new ArrayDeque<>();
+        latest = null;
+      }
+    }
+  
+    void offer(T event) {
+      lock.lock();
+      try {
+        if (cancelled) {
+          return;
+        }
+        if (latest != null) {
+          Object key = publisher.keyFunction.apply(event);
+          if (latest.put(key, event) == null && latest.size() > bufferSize) {
+            Iterator<T> it = latest.values().iterator();
+            it.next();
+            it.remove();
+          }
+        } else if (queue.size() < bufferSize) {
+          queue.add(event);
+        } else {
+          switch (strategy) {
+            case DROP_OLDEST:
+              queue.poll();
+              queue.add(event);
+              break;
+            case DROP_LATEST:
+              break;
+            case BLOCK:
+              while (queue.size() >= bufferSize && !cancelled) {
+                notFull.awaitUninterruptibly();
+              }
+              if (cancelled) {
+                return;
+              }
+              queue.add(event);
+              break;
+            default:
+              throw new IllegalStateException();
+          }
+        }
+      } finally {
+        lock.unlock();
+      }
+      drain();
+    }
+  
+    @Override
+    public void request(long n) {
+      lock.lock();
+      try {
+        if (cancelled) {
+          return;
+        }
+        if (n <= 0) {
+          error = new IllegalArgumentException("The number of requested events must be positive, got: " + n);
+          cancelLocked();
+        } else {
+          requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+        }
+      } finally {
+        lock.unlock();
+      }
+      drain();
+    }
+  
+    @Override
+    public void cancel() {
+      lock.lock();
+      try {
+        cancelLocked();
+      } finally {
+        lock.unlock();
+      }
+    }
+  
+    private void cancelLocked() {
+      if (cancelled) {
+        return;
+      }
+      cancelled = true;
+      if (queue != null) {
+        queue.clear();
+      } else {
+        latest.clear();
+      }
+      notFull.signalAll();
+      publisher.subscriptions.remove(this);
+    }
+  
+    private void drain() {
+      if (wip.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      while (true) {
+        while (true) {
+          T event = null;
+          Throwable failure = null;
+          lock.lock();
+          try {
+            if (error != null) {
+              failure = error;
+              error = null;
+            } else if (!cancelled && requested > 0) {
+              event = poll();
+              if (event != null && requested != Long.MAX_VALUE) {
+                requested--;
+              }
+            }
+          } finally {
+            lock.unlock();
+          }
+          if (failure != null) {
+            subscriber.onError(failure);
+            break;
+          }
+          if (event == null) {
+            break;
+          }
+          subscriber.onNext(event);
+        }
+        missed = wip.addAndGet(-missed);
+        if (missed == 0) {
+          return;
+        }
+      }
+    }
+  
+    private T poll() {
+      if (queue != null) {
+        T event = queue.poll();
+        if (event != null) {
+          notFull.signal();
+        }
+        return event;
+      }
+      Iterator<T> it = latest.values().iterator();
+      if (!it.hasNext()) {
+        return null;
+      }
+      T event = it.next();
+      it.remove();
+      return event;
+    }
+  }
+}
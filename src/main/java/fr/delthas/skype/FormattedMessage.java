@@ -1,23 +1,32 @@
 package fr.delthas.skype;
 
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * A parsed formatted message (the payload of SDG and NFY packets).
+ * <p>
+ * Only the routing block is parsed eagerly: the headers and the body are extracted from the message on their first access, and then memoized.
+ * Malformed header lines are ignored.
+ */
 final class FormattedMessage {
   private static final String PARSING_ERROR_MESSAGE = "Error while parsing formatted message";
   public final String sender;
   public final String receiver;
-  public final String type;
-  public final Map<String, String> headers;
-  public final String body;
+  private final String message;
+  private final int headersStart;
+  private final int headersEnd;
+  private volatile Map<String, String> headers;
+  private volatile String body;
   
-  private FormattedMessage(String sender, String receiver, String type, Map<String, String> headers, String body) {
+  private FormattedMessage(String sender, String receiver, String message, int headersStart, int headersEnd) {
     this.sender = sender;
     this.receiver = receiver;
-    this.type = type;
-    this.headers = headers;
-    this.body = body;
+    this.message = message;
+    this.headersStart = headersStart;
+    this.headersEnd = headersEnd;
   }
   
   public static FormattedMessage parseMessage(String formattedMessage) {
@@ -41,22 +50,48 @@ final class FormattedMessage {
     if (from == null) {
       throw new IllegalArgumentException(PARSING_ERROR_MESSAGE);
     }
-    
-    Map<String, String> headers = new HashMap<>();
-    int headerStart = thirdBlockStart;
-    while (headerStart < thirdBlockEnd) {
-      int headerEnd = formattedMessage.indexOf("\r\n", headerStart);
-      int middle = formattedMessage.indexOf(": ", headerStart);
-      if (middle == -1 || middle >= headerEnd - ": ".length()) {
-        throw new IllegalArgumentException(PARSING_ERROR_MESSAGE);
+    return new FormattedMessage(from, to, formattedMessage, thirdBlockStart, thirdBlockEnd);
+  }
+  
+  public String getHeader(String name) {
+    return getHeaders().get(name);
+  }
+  
+  public String getType() {
+    return getHeader("Message-Type");
+  }
+  
+  public String getMessageId() {
+    Map<String, String> headers = getHeaders();
+    return headers.getOrDefault("Client-Message-ID", headers.get("Message-ID"));
+  }
+  
+  public Map<String, String> getHeaders() {
+    Map<String, String> headers = this.headers;
+    if (headers == null) {
+      headers = new HashMap<>();
+      int headerStart = headersStart;
+      while (headerStart < headersEnd) {
+        int headerEnd = message.indexOf("\r\n", headerStart);
+        int middle = message.indexOf(": ", headerStart);
+        if (middle != -1 && middle < headerEnd - ": ".length()) {
+          headers.put(message.substring(headerStart, middle), message.substring(middle + ": ".length(), headerEnd));
+        }
+        headerStart = headerEnd + 2;
       }
-      String key = formattedMessage.substring(headerStart, middle);
-      String value = formattedMessage.substring(middle + ": ".length(), headerEnd);
-      headers.put(key, value);
-      headerStart = headerEnd + 2;
+      headers = Collections.unmodifiableMap(headers);
+      this.headers = headers;
+    }
+    return headers;
+  }
+  
+  public String getBody() {
+    String body = this.body;
+    if (body == null) {
+      body = message.substring(headersEnd + "\r\n\r\n".length());
+      this.body = body;
     }
-    String body = formattedMessage.substring(thirdBlockEnd + "\r\n\r\n".length());
-    return new FormattedMessage(from, to, headers.get("Message-Type"), headers, body);
+    return body;
   }
   
   private static String extractValue(String string, String pre, String post, int min, int max) {
@@ -82,4 +117,36 @@ final class FormattedMessage {
     String formattedMessage = String.format("%s\r\n%s\r\n%s\r\n%s%s\r\n%s", routing, reliability, type, userHeaders, contentLength, body);
     return formattedMessage;
   }
+  
+  /**
+   * Formats a message once for many receivers.
+   */
+  public static Template template(String sender, String type, String body, String... headers) {
+    return new Template(format(sender, "", type, body, headers).substring(Template.PREFIX.length()));
+  }
+  
+  /**
+   * A formatted message with no receiver yet: the messages for each receiver only differ by their {@code To:} header.
+   */
+  static final class Template {
+    private static final String PREFIX = "Routing: 1.0\r\nTo: ";
+    private final String suffix;
+    private final int suffixSize;
+    
+    private Template(String suffix) {
+      this.suffix = suffix;
+      suffixSize = suffix.getBytes(StandardCharsets.UTF_8).length;
+    }
+    
+    public String format(String receiver) {
+      return PREFIX + receiver + suffix;
+    }
+    
+    /**
+     * @return The size in bytes of the message for this receiver, encoded in UTF-8.
+     */
+    public int size(String receiver) {
+      return PREFIX.length() + receiver.getBytes(StandardCharsets.UTF_8).length + suffixSize;
+    }
+  }
 }
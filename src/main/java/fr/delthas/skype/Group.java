@@ -1,31 +1,51 @@
 package fr.delthas.skype;
 
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A conversation between some Skype users.
  * <p>
  * All information will be updated as updates are received (this object <b>is NOT</b> an immutable view/snapshot of a group).
+ * <p>
+ * The members of the group are stored as an immutable snapshot indexed by user, which is replaced atomically on each update: the lists returned
+ * by this object are consistent snapshots and can be read from any thread.
+ * <p>
+ * If lazy group loading is enabled (see {@link Skype#setLazyGroupLoading(int)}), accessing the topic or the users of the group may block until
+ * the group is loaded, for at most 10 seconds. If the group isn't loaded by then, or if it is accessed from a listener (which can't wait for it,
+ * as groups are loaded by the thread that calls the listeners), a warning is logged and the partial state known so far is returned, which can have
+ * no members and no topic.
  */
 public class Group {
   private final Skype skype;
   private final String id;
-  private List<Pair<User, Role>> users;
-  private String topic;
+  private volatile GroupMembers members = GroupMembers.EMPTY;
+  private volatile String topic;
+  // server time in milliseconds of the most recent update applied, guarded by this
+  private long version = -1;
+  private volatile boolean loaded = false;
+  private volatile CountDownLatch loadLatch = new CountDownLatch(1);
+  private final AtomicBoolean loadRequested = new AtomicBoolean();
+  // the members when the group was unloaded, still in the user to groups index until the group is loaded again, guarded by this
+  private Set<User> unloadedMembers = new HashSet<>();
   
   Group(Skype skype, String id) {
     this.skype = skype;
     this.id = id;
-    users = Collections.emptyList();
     topic = "";
   }
   
   /**
    * Sends a message to the group.
+   * <p>
+   * This method returns once the message is queued, without waiting for its acknowledgment: if the server rejects the message, or doesn't
+   * acknowledge it in time, the error is reported later like the other errors of the Skype interface (see
+   * {@link Skype#setErrorListener(ErrorListener)}). Use {@link #sendMessageAsync(String)} to handle the errors of each message instead.
    *
    * @param message The message to send.
    */
@@ -33,6 +53,57 @@ public class Group {
     skype.sendGroupMessage(this, message);
   }
   
+  /**
+   * Sends a message to the group, and tracks its acknowledgment by the server.
+   * <p>
+   * Unlike {@link #sendMessage(String)}, an error reported by the server for this message only fails the returned future, and doesn't disconnect
+   * the Skype interface. This method blocks while too many messages are waiting for their acknowledgment.
+   * <p>
+   * The returned future is completed from an internal thread: actions that take time must be chained with the asynchronous methods of
+   * {@link CompletableFuture}.
+   *
+   * @param message The message to send.
+   * @return A future completed when the server acknowledges the message, or completed exceptionally with an {@link java.io.IOException} if the
+   * server rejects it or the connection is lost, or with a {@link java.util.concurrent.TimeoutException} if it isn't acknowledged in time.
+   * @see Skype#setSendWindow(int, long)
+   */
+  public CompletableFuture<Void> sendMessageAsync(String message) {
+    return skype.sendGroupMessageAsync(this, message);
+  }
+  
+  /**
+   * Returns the most recent messages of this group, sent and received, if the message history is enabled.
+   *
+   * @param n The maximum number of messages to return.
+   * @return The last n messages of the group, oldest first, or an empty list if the message history is disabled (snapshot, won't be updated).
+   * @see Skype#setMessageHistory(int, long)
+   */
+  public List<ChatMessage> getRecentMessages(int n) {
+    return skype.getRecentMessages(this, n);
+  }
+  
+  /**
+   * Adds a message listener that only receives the messages sent to this group.
+   * <p>
+   * Messages are routed to the listeners of their conversation directly, so these listeners don't slow down the dispatch of the messages of
+   * other conversations.
+   *
+   * @param messageListener The message listener to add.
+   * @param messageTypes    The types of the messages to receive (see {@link MessageEvent#getMessageType()}), or none to receive all messages.
+   */
+  public void addMessageListener(MessageListener messageListener, String... messageTypes) {
+    skype.addConversationMessageListener(this, messageListener, messageTypes);
+  }
+  
+  /**
+   * Removes a message listener added with {@link #addMessageListener(MessageListener, String...)}.
+   *
+   * @param messageListener The message listener to remove.
+   */
+  public void removeMessageListener(MessageListener messageListener) {
+    skype.removeConversationMessageListener(this, messageListener);
+  }
+  
   /**
    * The id of a group is a special String used by Skype to uniquely identify groups.
    * <p>
@@ -45,16 +116,15 @@ public class Group {
   }
   
   /**
+   * With lazy group loading, this is the partial state known so far if the group couldn't be loaded (see {@link Group}).
+   *
    * @return The topic of the group.
    */
   public String getTopic() {
+    skype.groupAccessed(this, true);
     return topic;
   }
   
-  void setTopic(String topic) {
-    this.topic = topic;
-  }
-  
   /**
    * Changes the topic of this group
    *
@@ -65,21 +135,169 @@ public class Group {
   }
   
   /**
-   * @return The list of users in the group with their roles.
+   * With lazy group loading, this is the partial state known so far if the group couldn't be loaded (see {@link Group}).
+   *
+   * @return The list of users in the group with their roles (snapshot, won't be updated).
    */
   public List<Pair<User, Role>> getUsersWithRoles() {
-    return users;
+    skype.groupAccessed(this, true);
+    return members.getUsersWithRoles();
   }
   
   /**
-   * @return The list of users in the group.
+   * With lazy group loading, this is the partial state known so far if the group couldn't be loaded (see {@link Group}).
+   *
+   * @return The list of users in the group (snapshot, won't be updated).
    */
   public List<User> getUsers() {
-    return users.stream().map(Pair::getFirst).collect(Collectors.toList());
+    skype.groupAccessed(this, true);
+    return members.getUsers();
+  }
+  
+  /**
+   * With lazy group loading, this is the partial state known so far if the group couldn't be loaded (see {@link Group}).
+   *
+   * @param role The role of the users to return.
+   * @return The list of users in the group with this role (snapshot, won't be updated).
+   */
+  public List<User> getUsersWithRole(Role role) {
+    skype.groupAccessed(this, true);
+    return members.getUsers(role);
+  }
+  
+  /**
+   * With lazy group loading, this is the partial state known so far if the group couldn't be loaded (see {@link Group}).
+   *
+   * @param user The user whose role to return.
+   * @return The role of this user in the group, or null if the user isn't in the group.
+   */
+  public Role getRole(User user) {
+    skype.groupAccessed(this, true);
+    return members.getRole(user);
+  }
+  
+  /**
+   * Replaces the state of the group with a full thread snapshot, unless a more recent update has already been applied.
+   *
+   * @param version The version of the snapshot (a server timestamp in milliseconds), or -1 if unknown, in which case it is always applied.
+   */
+  synchronized void applySnapshot(String topic, List<Pair<User, Role>> users, long version) {
+    loadRequested.set(false);
+    if (!loaded) {
+      // the group only has the partial state of the updates received while it wasn't loaded: always replace it
+      this.version = Math.max(this.version, version);
+    } else if (isStale(version)) {
+      return;
+    }
+    this.topic = topic;
+    loaded = true;
+    loadLatch.countDown();
+    Set<User> oldMembers = unloadedMembers;
+    unloadedMembers = new HashSet<>();
+    oldMembers.addAll(members.getUsers());
+    members = GroupMembers.of(users);
+    for (User user : oldMembers) {
+      if (!members.contains(user)) {
+        skype.userLeftGroup(user, this);
+      }
+    }
+    for (User user : members.getUsers()) {
+      if (!oldMembers.contains(user)) {
+        skype.userJoinedGroup(user, this);
+      }
+    }
+  }
+  
+  boolean isLoaded() {
+    return loaded;
+  }
+  
+  boolean requestLoad() {
+    // true if the caller must send the load request
+    return loadRequested.compareAndSet(false, true);
+  }
+  
+  void loadFailed() {
+    loadRequested.set(false);
+  }
+  
+  // returns true if the group is loaded
+  boolean awaitLoaded(long timeoutMillis) {
+    try {
+      return loadLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+  
+  /**
+   * Drops the members and roles of the group to save memory, until it is loaded again. Only used with lazy group loading.
+   * <p>
+   * The members stay in the user to groups index, so that {@link User#getGroups()} still returns the unloaded groups.
+   */
+  synchronized void unload() {
+    loaded = false;
+    loadLatch = new CountDownLatch(1);
+    version = -1;
+    unloadedMembers.addAll(members.getUsers());
+    members = GroupMembers.EMPTY;
+  }
+  
+  // the apply* methods below apply an incremental update (thread activity) with the given event time, or -1 if unknown
+  
+  synchronized void applyUsersAdded(List<User> users, long eventTime) {
+    if (isStale(eventTime)) {
+      return;
+    }
+    GroupMembers oldMembers = members;
+    members = oldMembers.withAll(users, Role.USER);
+    for (User user : users) {
+      if (!oldMembers.contains(user)) {
+        skype.userJoinedGroup(user, this);
+      }
+    }
   }
   
-  void setUsers(List<Pair<User, Role>> users) {
-    this.users = users;
+  synchronized void applyUsersRemoved(List<User> users, long eventTime) {
+    if (isStale(eventTime)) {
+      return;
+    }
+    GroupMembers oldMembers = members;
+    members = oldMembers.withoutAll(users);
+    for (User user : users) {
+      // an unloaded group can have both members from before it was unloaded, and members added since
+      boolean unloadedMember = unloadedMembers.remove(user);
+      if (oldMembers.contains(user) || unloadedMember) {
+        skype.userLeftGroup(user, this);
+      }
+    }
+  }
+  
+  synchronized void applyRolesChanged(List<Pair<User, Role>> roles, long eventTime) {
+    if (isStale(eventTime)) {
+      return;
+    }
+    members = members.withRoles(roles);
+  }
+  
+  synchronized void applyTopicChanged(String topic, long eventTime) {
+    if (isStale(eventTime)) {
+      return;
+    }
+    this.topic = topic;
+  }
+  
+  private boolean isStale(long time) {
+    // an update older than the last one applied is already included in the state: ignore it
+    if (time < 0) {
+      return false;
+    }
+    if (time < version) {
+      return true;
+    }
+    version = time;
+    return false;
   }
   
   /**
@@ -93,13 +311,14 @@ public class Group {
     if (!isSelfAdmin() && role == Role.ADMIN) {
       return false;
     }
-    // we need to make sure the user isn't in the group to avoid getting an error
-    for (Pair<User, Role> pair : users) {
-      if (user.equals(pair.getFirst())) {
+    synchronized (this) {
+      // we need to make sure the user isn't in the group to avoid getting an error
+      if (members.contains(user)) {
         return false;
       }
+      members = members.with(user, role);
+      skype.userJoinedGroup(user, this);
     }
-    users.add(new Pair<>(user, role));
     skype.addUserToGroup(user, role, this);
     return true;
   }
@@ -115,16 +334,15 @@ public class Group {
     if (!isSelfAdmin()) {
       return false;
     }
-    // we need to make sure the user is in the group to avoid getting an error
-    Iterator<Pair<User, Role>> it = users.iterator();
-    while (it.hasNext()) {
-      Pair<User, Role> pair = it.next();
-      if (user.equals(pair.getFirst())) {
-        it.remove();
-        skype.removeUserFromGroup(user, this);
+    synchronized (this) {
+      // we need to make sure the user is in the group to avoid getting an error
+      if (!members.contains(user)) {
         return true;
       }
+      members = members.without(user);
+      skype.userLeftGroup(user, this);
     }
+    skype.removeUserFromGroup(user, this);
     return true;
   }
   
@@ -140,35 +358,27 @@ public class Group {
     if (!isSelfAdmin()) {
       return false;
     }
-    // we need to make sure the user is in the group to avoid getting an error
-    ListIterator<Pair<User, Role>> it = users.listIterator();
-    while (it.hasNext()) {
-      Pair<User, Role> pair = it.next();
-      if (user.equals(pair.getFirst())) {
-        // need to return if it already has the same role to avoid getting an error
-        if (role == pair.getSecond()) {
-          return false;
-        }
-        it.remove();
-        it.add(new Pair<>(user, role));
-        skype.changeUserRole(user, role, this);
-        return true;
+    synchronized (this) {
+      // we need to make sure the user is in the group to avoid getting an error
+      Role oldRole = members.getRole(user);
+      // need to return if it already has the same role to avoid getting an error
+      if (oldRole == null || oldRole == role) {
+        return false;
       }
+      members = members.with(user, role);
     }
-    return false;
+    skype.changeUserRole(user, role, this);
+    return true;
   }
   
   /**
+   * With lazy group loading, this is the partial state known so far if the group couldn't be loaded (see {@link Group}).
+   *
    * @return true if the Skype account has admin rights on this group.
    */
   public boolean isSelfAdmin() {
-    User self = skype.getSelf();
-    for (Pair<User, Role> pair : users) {
-      if (pair.getFirst().equals(self)) {
-        return pair.getSecond() == Role.ADMIN;
-      }
-    }
-    return false;
+    skype.groupAccessed(this, true);
+    return members.getRole(skype.getSelf()) == Role.ADMIN;
   }
   
   @Override
@@ -0,0 +1,103 @@
+package fr.delthas.skype;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable change of the properties of a group, as published by {@link Skype#getGroupChangePublisher()}.
+ *
+ * @see GroupPropertiesListener
+ */
+public final class GroupChange {
+  private final Group group;
+  private final Type type;
+  private final List<User> users;
+  private final List<Pair<User, Role>> roles;
+  private final String topic;
+  
+  private GroupChange(Group group, Type type, List<User> users, List<Pair<User, Role>> roles, String topic) {
+    this.group = group;
+    this.type = type;
+    this.users = users;
+    this.roles = roles;
+    this.topic = topic;
+  }
+  
+  static GroupChange usersAdded(Group group, List<User> users) {
+    return new GroupChange(group, Type.USERS_ADDED, users, Collections.emptyList(), null);
+  }
+  
+  static GroupChange usersRemoved(Group group, List<User> users) {
+    return new GroupChange(group, Type.USERS_REMOVED, users, Collections.emptyList(), null);
+  }
+  
+  static GroupChange rolesChanged(Group group, List<Pair<User, Role>> roles) {
+    return new GroupChange(group, Type.ROLES_CHANGED, Collections.emptyList(), roles, null);
+  }
+  
+  static GroupChange topicChanged(Group group, String topic) {
+    return new GroupChange(group, Type.TOPIC_CHANGED, Collections.emptyList(), Collections.emptyList(), topic);
+  }
+  
+  /**
+   * @return The group whose properties changed.
+   */
+  public Group getGroup() {
+    return group;
+  }
+  
+  /**
+   * @return The type of the change.
+   */
+  public Type getType() {
+    return type;
+  }
+  
+  /**
+   * @return The users added or removed, or an empty list if the type of the change is not {@link Type#USERS_ADDED} or {@link Type#USERS_REMOVED}.
+   */
+  public List<User> getUsers() {
+    return users;
+  }
+  
+  /**
+   * @return The new roles of the users whose roles changed, or an empty list if the type of the change is not {@link Type#ROLES_CHANGED}.
+   */
+  public List<Pair<User, Role>> getRoles() {
+    return roles;
+  }
+  
+  /**
+   * @return The new topic of the group, or null if the type of the change is not {@link Type#TOPIC_CHANGED}.
+   */
+  public String getTopic() {
+    return topic;
+  }
+  
+  @Override
+  public String toString() {
+    return "Group Change: Group: " + group.getId() + " type: " + type;
+  }
+  
+  /**
+   * The type of a change of the properties of a group, matching the methods of {@link GroupPropertiesListener}.
+   */
+  public enum Type {
+    /**
+     * Users were added to the group.
+     */
+    USERS_ADDED,
+    /**
+     * Users were removed from the group.
+     */
+    USERS_REMOVED,
+    /**
+     * The roles of some users of the group changed.
+     */
+    ROLES_CHANGED,
+    /**
+     * The topic of the group changed.
+     */
+    TOPIC_CHANGED
+  }
+}
@@ -0,0 +1,145 @@
+package fr.delthas.skype;
+
+import java.util.*;
+
+/**
+ * An immutable set of group members with their roles, indexed by user.
+ * <p>
+ * Lookups by user are O(1). The list views are computed on first use and then shared, so that readers can get them repeatedly for free. Updates
+ * return a new instance, which {@link Group} publishes atomically.
+ */
+final class GroupMembers {
+  static final GroupMembers EMPTY = new GroupMembers(new LinkedHashMap<>());
+  private final Map<User, Role> roles;
+  // lazily computed views; racy initialization is fine since they are immutable and always equal
+  private List<Pair<User, Role>> usersWithRoles;
+  private List<User> users;
+  private Map<Role, List<User>> usersByRole;
+  
+  private GroupMembers(LinkedHashMap<User, Role> roles) {
+    this.roles = roles;
+  }
+  
+  static GroupMembers of(List<Pair<User, Role>> members) {
+    LinkedHashMap<User, Role> roles = new LinkedHashMap<>(members.size() * 4 / 3 + 1);
+    for (Pair<User, Role> member : members) {
+      roles.put(member.getFirst(), member.getSecond());
+    }
+    return new GroupMembers(roles);
+  }
+  
+  Role getRole(User user) {
+    return roles.get(user);
+  }
+  
+  boolean contains(User user) {
+    return roles.containsKey(user);
+  }
+  
+  GroupMembers with(User user, Role role) {
+    if (roles.get(user) == role) {
+      return this;
+    }
+    LinkedHashMap<User, Role> newRoles = new LinkedHashMap<>(roles);
+    newRoles.put(user, role);
+    return new GroupMembers(newRoles);
+  }
+  
+  /**
+   * Adds many users at once, with a single copy.
+   *
+   * @return The members with the users that weren't members yet, with the specified role (the role of the existing members doesn't change).
+   */
+  GroupMembers withAll(Collection<User> users, Role role) {
+    LinkedHashMap<User, Role> newRoles = null;
+    for (User user : users) {
+      if (roles.containsKey(user)) {
+        continue;
+      }
+      if (newRoles == null) {
+        newRoles = new LinkedHashMap<>(roles);
+      }
+      newRoles.putIfAbsent(user, role);
+    }
+    return newRoles == null ? this : new GroupMembers(newRoles);
+  }
+  
+  /**
+   * Changes the roles of many members at once, with a single copy. Users that aren't members are ignored.
+   */
+  GroupMembers withRoles(Collection<Pair<User, Role>> newRoles) {
+    LinkedHashMap<User, Role> copy = null;
+    for (Pair<User, Role> role : newRoles) {
+      Role oldRole = (copy == null ? roles : copy).get(role.getFirst());
+      if (oldRole == null || oldRole == role.getSecond()) {
+        continue;
+      }
+      if (copy == null) {
+        copy = new LinkedHashMap<>(roles);
+      }
+      copy.put(role.getFirst(), role.getSecond());
+    }
+    return copy == null ? this : new GroupMembers(copy);
+  }
+  
+  GroupMembers without(User user) {
+    if (!roles.containsKey(user)) {
+      return this;
+    }
+    LinkedHashMap<User, Role> newRoles = new LinkedHashMap<>(roles);
+    newRoles.remove(user);
+    return new GroupMembers(newRoles);
+  }
+  
+  /**
+   * Removes many users at once, with a single copy. Users that aren't members are ignored.
+   */
+  GroupMembers withoutAll(Collection<User> users) {
+    LinkedHashMap<User, Role> newRoles = null;
+    for (User user : users) {
+      if (newRoles == null) {
+        if (!roles.containsKey(user)) {
+          continue;
+        }
+        newRoles = new LinkedHashMap<>(roles);
+      }
+      newRoles.remove(user);
+    }
+    return newRoles == null ? this : new GroupMembers(newRoles);
+  }
+  
+  List<Pair<User, Role>> getUsersWithRoles() {
+    List<Pair<User, Role>> usersWithRoles = this.usersWithRoles;
+    if (usersWithRoles == null) {
+      List<Pair<User, Role>> list = new ArrayList<>(roles.size());
+      roles.forEach((user, role) -> list.add(new Pair<>(user, role)));
+      usersWithRoles = Collections.unmodifiableList(list);
+      this.usersWithRoles = usersWithRoles;
+    }
+    return usersWithRoles;
+  }
+  
+  List<User> getUsers() {
+    List<User> users = this.users;
+    if (users == null) {
+      users = Collections.unmodifiableList(new ArrayList<>(roles.keySet()));
+      this.users = users;
+    }
+    return users;
+  }
+  
+  List<User> getUsers(Role role) {
+    Map<Role, List<User>> usersByRole = this.usersByRole;
+    if (usersByRole == null) {
+      Map<Role, List<User>> map = new EnumMap<>(Role.class);
+      for (Role r : Role.values()) {
+        map.put(r, new ArrayList<>());
+      }
+      roles.forEach((user, r) -> map.get(r).add(user));
+      map.replaceAll((r, list) -> Collections.unmodifiableList(list));
+      usersByRole = Collections.unmodifiableMap(map);
+      this.usersByRole = usersByRole;
+    }
+    return usersByRole.get(role);
+  }
+}
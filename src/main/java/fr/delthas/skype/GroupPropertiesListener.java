@@ -4,6 +4,8 @@ import java.util.List;
 
 /**
  * A listener for changed to a group properties, such as users added or removed.
+ * <p>
+ * When these methods are called, the change has already been applied to the {@link Group} object.
  */
 public interface GroupPropertiesListener {
   /**
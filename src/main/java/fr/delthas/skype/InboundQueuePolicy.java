@@ -0,0 +1,21 @@
+package fr.delthas.skype;
+
+/**
+ * What to do when a packet is received while the inbound queue, between the thread reading packets from the server and the thread processing
+ * them, is full.
+ *
+ * @see Skype#setInboundQueue(int, InboundQueuePolicy)
+ */
+public enum InboundQueuePolicy {
+  /**
+   * Stop reading from the server until there is room in the queue. No packet is lost.
+   */
+  BLOCK,
+  /**
+   * Coalesce presence notifications when the queue is full, and block for other packets.
+   * <p>
+   * Only the latest presence notification of each user that doesn't fit in the queue is kept, and processed once the queue has been emptied, so
+   * that the presence of each user is eventually up to date: only the intermediate presences of a user are lost.
+   */
+  DROP_PRESENCE
+}
@@ -0,0 +1,67 @@
+package fr.delthas.skype;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The process-wide bounded pool running the asynchronous blocking calls (HTTP requests) of all Skype interfaces.
+ * <p>
+ * Each call has a timeout, after which its future fails and the call is interrupted. When too many calls are waiting, new calls fail
+ * immediately.
+ */
+final class IoExecutor {
+  private static final int THREADS = 16;
+  private static final int MAX_QUEUED_CALLS = 4096;
+  private static final ThreadPoolExecutor executor = createExecutor();
+  
+  private IoExecutor() {
+    // prevent instantiation
+    throw new IllegalStateException("This class cannot be instantiated");
+  }
+  
+  private static ThreadPoolExecutor createExecutor() {
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(MAX_QUEUED_CALLS),
+            r -> Threads.newThread(r, "Skype-IO-Thread-" + threadCount.incrementAndGet(), true));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+  
+  /**
+   * Runs a blocking call on the pool.
+   *
+   * @param timeoutMillis The time in milliseconds after which the call fails with a {@link TimeoutException}, counted from its submission.
+   * @return A future completed with the result of the call, or exceptionally with the exception it threw.
+   */
+  static <T> CompletableFuture<T> submit(Callable<T> call, long timeoutMillis) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    Future<?> task;
+    try {
+      task = executor.submit(() -> {
+        try {
+          future.complete(call.call());
+        } catch (Throwable e) {
+          future.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(e);
+      return future;
+    }
+    ScheduledFuture<?> timeoutTask = Scheduler.scheduleCompletion(() -> {
+      if (future.completeExceptionally(new TimeoutException("Call timed out after " + timeoutMillis + "ms"))) {
+        task.cancel(true);
+      }
+    }, timeoutMillis, TimeUnit.MILLISECONDS);
+    future.whenComplete((result, e) -> timeoutTask.cancel(false));
+    return future;
+  }
+}
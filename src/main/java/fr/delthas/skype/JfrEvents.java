@@ -0,0 +1,49 @@
+package fr.delthas.skype;
+
+/**
+ * The Java 8 version of the Java Flight Recorder events of the library, which emits no events.
+ * <p>
+ * The events are defined in {@code src/main/java11}, which is compiled with Java 11 into {@code META-INF/versions/11} of the multi-release jar:
+ * that version replaces this class on Java 11 and newer. This class must only be accessed through {@link Tracing}.
+ */
+final class JfrEvents {
+  private JfrEvents() {
+    // prevent instantiation
+    throw new IllegalStateException("This class cannot be instantiated");
+  }
+  
+  static Object beginPacketRead() {
+    return null;
+  }
+  
+  static void endPacketRead(Object event, String command, int size) {
+  }
+  
+  static Object beginPacketProcess() {
+    return null;
+  }
+  
+  static void endPacketProcess(Object event, String command, String parameters, int size) {
+  }
+  
+  static Object beginListenerCall() {
+    return null;
+  }
+  
+  static void endListenerCall(Object event, String type, Object listener) {
+  }
+  
+  static Object beginHttpRequest() {
+    return null;
+  }
+  
+  static void endHttpRequest(Object event, String endpoint, String method, int status) {
+  }
+  
+  static Object beginUicComputation() {
+    return null;
+  }
+  
+  static void endUicComputation(Object event, String type) {
+  }
+}
@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.IllegalFormatException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,13 +22,23 @@ class LiveConnector {
   private String loginToken;
   private String liveToken;
   private String skypeToken;
+  private final ReentrantLock refreshLock = new ReentrantLock();
   
   public LiveConnector(String username, String password) {
     this.username = username;
     this.password = password;
   }
   
-  public synchronized long refreshTokens() throws IOException {
+  public long refreshTokens() throws IOException {
+    refreshLock.lock();
+    try {
+      return doRefreshTokens();
+    } finally {
+      refreshLock.unlock();
+    }
+  }
+  
+  private long doRefreshTokens() throws IOException {
     logger.finer("Refreshing tokens");
     
     Response authorize = Jsoup.connect(SERVER_HOSTNAME + "/oauth20_authorize.srf?client_id=00000000480BC46C&scope=service%3A%3Askype.com%3A%3AMBI_SSL&response_type=token&redirect_uri=https%3A%2F%2Flogin.live.com%2Foauth20_desktop.srf&state=999&locale=en").maxBodySize(100 * 1024 * 1024).timeout(10000).method(Method.GET).ignoreContentType(true).ignoreHttpErrors(true).execute();
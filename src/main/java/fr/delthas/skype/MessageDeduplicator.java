@@ -0,0 +1,52 @@
+package fr.delthas.skype;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the ids of the messages recently received in each conversation, to drop messages delivered twice (for example after a reconnection
+ * or a redirection to another server).
+ * <p>
+ * Ids are forgotten after a time window, and at most a fixed number of ids per conversation and of conversations are remembered, the least
+ * recently active conversations being forgotten first.
+ */
+final class MessageDeduplicator {
+  private static final int MAX_IDS_PER_CONVERSATION = 256;
+  private static final int MAX_CONVERSATIONS = 1024;
+  private final long windowNanos;
+  private final Map<Object, LinkedHashMap<String, Long>> conversations = new LinkedHashMap<Object, LinkedHashMap<String, Long>>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+  
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Object, LinkedHashMap<String, Long>> eldest) {
+      return size() > MAX_CONVERSATIONS;
+    }
+  };
+  
+  MessageDeduplicator(long windowMillis) {
+    windowNanos = windowMillis * 1000000L;
+  }
+  
+  /**
+   * Records a message id.
+   *
+   * @return true if this id was already received in this conversation during the time window.
+   */
+  synchronized boolean isDuplicate(Object conversation, String id, long nanoTime) {
+    LinkedHashMap<String, Long> ids = conversations.computeIfAbsent(conversation, c -> new LinkedHashMap<>());
+    // ids are in reception order: expire them from the oldest
+    Iterator<Long> it = ids.values().iterator();
+    while (it.hasNext()) {
+      if (nanoTime - it.next() <= windowNanos && ids.size() < MAX_IDS_PER_CONVERSATION) {
+        break;
+      }
+      it.remove();
+    }
+    if (ids.containsKey(id)) {
+      return true;
+    }
+    ids.put(id, nanoTime);
+    return false;
+  }
+}
@@ -0,0 +1,101 @@
+package fr.delthas.skype;
+
+import java.util.Map;
+
+/**
+ * A message received by the Skype account, directly from a user or in a group.
+ * <p>
+ * This object is backed by the received packet: its headers, raw body and plaintext are decoded on their first access and then memoized, and
+ * it can be read from any thread.
+ *
+ * @see MessageListener
+ */
+public final class MessageEvent {
+  private final FormattedMessage formatted;
+  private final User sender;
+  private final Group group;
+  private final long receivedTime;
+  private volatile String message;
+  
+  MessageEvent(FormattedMessage formatted, User sender, Group group, long receivedTime, String message) {
+    this.formatted = formatted;
+    this.sender = sender;
+    this.group = group;
+    this.receivedTime = receivedTime;
+    this.message = message;
+  }
+  
+  /**
+   * @return The sender of the message.
+   */
+  public User getSender() {
+    return sender;
+  }
+  
+  /**
+   * @return The group the message was sent to, or null if it was sent directly to the Skype account.
+   */
+  public Group getGroup() {
+    return group;
+  }
+  
+  /**
+   * @return The time at which the message was read from the server, in milliseconds since the epoch (before it waited to be processed).
+   */
+  public long getReceivedTime() {
+    return receivedTime;
+  }
+  
+  /**
+   * @return The message, as plain text (this is the message passed to {@link UserMessageListener} and {@link GroupMessageListener}).
+   */
+  public String getMessage() {
+    String message = this.message;
+    if (message == null) {
+      message = NotifConnector.getPlaintext(formatted.getBody());
+      this.message = message;
+    }
+    return message;
+  }
+  
+  /**
+   * @return The raw body of the message, which is HTML-like markup for {@code RichText} messages.
+   */
+  public String getRawMessage() {
+    return formatted.getBody();
+  }
+  
+  /**
+   * @return The type of the message, for example {@code Text} or {@code RichText}.
+   */
+  public String getMessageType() {
+    return formatted.getType();
+  }
+  
+  /**
+   * @return The id of the message set by the sending client, or if there is none the id set by the server, or null if there is none either.
+   */
+  public String getMessageId() {
+    return formatted.getMessageId();
+  }
+  
+  /**
+   * @param name The name of the header, case-sensitive.
+   * @return The value of the header of the message with this name, or null if there is none.
+   */
+  public String getHeader(String name) {
+    return formatted.getHeader(name);
+  }
+  
+  /**
+   * @return The headers of the message, by name (immutable).
+   */
+  public Map<String, String> getHeaders() {
+    return formatted.getHeaders();
+  }
+  
+  @Override
+  public String toString() {
+    return "Message Event: Sender: " + sender.getUsername() + (group == null ? "" : " group: " + group.getId()) + " type: " + getMessageType();
+  }
+}
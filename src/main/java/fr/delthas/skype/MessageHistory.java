@@ -0,0 +1,108 @@
+package fr.delthas.skype;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The recent messages of each conversation (keyed by {@link User} or {@link Group}), in a ring buffer of fixed capacity per conversation.
+ * <p>
+ * The total length of the messages of all conversations is capped: when it is exceeded, the oldest messages of the conversation that was least
+ * recently written to are dropped first.
+ */
+final class MessageHistory {
+  private final int capacity;
+  private final long maxTotalChars;
+  // ordered by last write: the first conversation is the one least recently written to
+  private final LinkedHashMap<Object, Ring> rings = new LinkedHashMap<>();
+  private long totalChars;
+  
+  MessageHistory(int capacity, long maxTotalChars) {
+    this.capacity = capacity;
+    this.maxTotalChars = maxTotalChars;
+  }
+  
+  synchronized void add(Object conversation, User sender, String message, long time) {
+    if (message.length() > maxTotalChars) {
+      return;
+    }
+    Ring ring = rings.remove(conversation);
+    if (ring == null) {
+      ring = new Ring(capacity);
+    }
+    rings.put(conversation, ring);
+    totalChars += ring.add(sender, message, time);
+    Iterator<Ring> it = rings.values().iterator();
+    while (totalChars > maxTotalChars) {
+      Ring eldest = it.next();
+      while (totalChars > maxTotalChars && eldest.size > 0) {
+        totalChars -= eldest.removeFirst();
+      }
+      if (eldest.size == 0) {
+        it.remove();
+      }
+    }
+  }
+  
+  synchronized List<ChatMessage> get(Object conversation, int n) {
+    Ring ring = rings.get(conversation);
+    if (ring == null || n <= 0) {
+      return Collections.emptyList();
+    }
+    return ring.last(n);
+  }
+  
+  synchronized long getTotalChars() {
+    return totalChars;
+  }
+  
+  private static final class Ring {
+    private final User[] senders;
+    private final String[] messages;
+    private final long[] times;
+    private int first;
+    private int size;
+  
+    Ring(int capacity) {
+      senders = new User[capacity];
+      messages = new String[capacity];
+      times = new long[capacity];
+    }
+  
+    // returns the change in total length
+    long add(User sender, String message, long time) {
+      long delta = message.length();
+      if (size == messages.length) {
+        delta -= removeFirst();
+      }
+      int index = (first + size) % messages.length;
+      senders[index] = sender;
+      messages[index] = message;
+      times[index] = time;
+      size++;
+      return delta;
+    }
+  
+    // returns the length of the removed message
+    int removeFirst() {
+      int length = messages[first].length();
+      senders[first] = null;
+      messages[first] = null;
+      first = (first + 1) % messages.length;
+      size--;
+      return length;
+    }
+  
+    List<ChatMessage> last(int n) {
+      int count = Math.min(n, size);
+      List<ChatMessage> list = new ArrayList<>(count);
+      for (int i = size - count; i < size; i++) {
+        int index = (first + i) % messages.length;
+        list.add(new ChatMessage(senders[index], messages[index], times[index]));
+      }
+      return Collections.unmodifiableList(list);
+    }
+  }
+}
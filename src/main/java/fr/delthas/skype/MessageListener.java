@@ -0,0 +1,19 @@
+package fr.delthas.skype;
+
+/**
+ * A listener for new messages sent to a Skype account, directly or in a group, that receives all the information about each message.
+ * <p>
+ * The fields of the {@link MessageEvent} are decoded lazily, so listeners only pay for the fields they read.
+ *
+ * @see UserMessageListener
+ * @see GroupMessageListener
+ */
+@FunctionalInterface
+public interface MessageListener {
+  /**
+   * Called when a message is sent to the Skype account, or to a group it is in, while it is connected.
+   *
+   * @param event The received message.
+   */
+  void messageReceived(MessageEvent event);
+}
@@ -0,0 +1,23 @@
+package fr.delthas.skype;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A message listener with the types of the messages it receives.
+ */
+final class MessageRoute {
+  final MessageListener listener;
+  // null to accept all types
+  private final Set<String> messageTypes;
+  
+  MessageRoute(MessageListener listener, String... messageTypes) {
+    this.listener = listener;
+    this.messageTypes = messageTypes.length == 0 ? null : new HashSet<>(Arrays.asList(messageTypes));
+  }
+  
+  boolean accepts(MessageEvent message) {
+    return messageTypes == null || messageTypes.contains(message.getMessageType());
+  }
+}
@@ -16,10 +16,21 @@ import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -31,46 +42,90 @@ class NotifConnector {
   private static final String EPID = generateEPID(); // generate EPID at runtime
   private static final String DEFAULT_SERVER_HOSTNAME = "s.gateway.messenger.live.com";
   private static final int DEFAULT_SERVER_PORT = 443;
-  private static final Pattern patternFirstLine = Pattern.compile("([A-Z]+|\\d+) \\d+ ([A-Z]+(?:\\\\[A-Z]+)?) (\\d+)");
+  private static final Pattern patternFirstLine = Pattern.compile("([A-Z]+|\\d+) (\\d+) ([A-Z]+(?:\\\\[A-Z]+)?) (\\d+)");
   private static final Pattern patternHeaders = Pattern.compile("\\A(?:(?:Set-Registration: (.+)|[A-Za-z\\-]+: .+)\\R)*\\R");
   private static final Pattern patternXFR = Pattern.compile("([a-zA-Z0-9\\.\\-]+):(\\d+)");
   private static final long pingInterval = 30 * 1000000000L; // seconds
-  private final DocumentBuilder documentBuilder;
+  private static final int DECODE_WINDOW = 256; // packets decoded ahead of processing
+  // also the maximum send window, as the tracked packets are queued without blocking
+  static final int OUTBOUND_LANE_CAPACITY = 1024;
+  private static final int WRITE_BATCH = 32; // packets written between two flushes
+  private static final int MAX_SEND_ATTEMPTS = 5; // attempts of a throttled message
+  // DocumentBuilder isn't thread-safe, and packets are parsed both by the reader and the processor threads
+  private static final ThreadLocal<DocumentBuilder> documentBuilder = ThreadLocal.withInitial(() -> {
+    try {
+      return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+    } catch (ParserConfigurationException e) {
+      // Should never happen, throw RE if it does
+      throw new RuntimeException(e);
+    }
+  });
   private final Skype skype;
   private final String username, password;
   private final boolean microsoft;
   private volatile String loginToken, liveToken;
-  private long lastMessageSentTime;
+  private volatile long lastMessageSentTime;
   private Thread receiverThread;
-  private Thread pingThread;
-  private boolean disconnectRequested = false;
+  private Thread processorThread;
+  private Thread writerThread;
+  // packets waiting to be written by the writer thread
+  private final OutboundLanes<OutboundPacket> outboundLanes = new OutboundLanes<>(OUTBOUND_LANE_CAPACITY, 4, 1);
+  // packets read but not processed yet
+  private final BlockingQueue<Packet> inboundQueue;
+  private final InboundQueuePolicy inboundQueuePolicy;
+  // with DROP_PRESENCE, the latest presence packet of each user that didn't fit in the full inbound queue, by user, guarded by itself
+  private final Map<String, Packet> coalescedPresences = new LinkedHashMap<>();
+  // decodes packets in parallel before processing them, or null if they are decoded while processing
+  private final DecodePipeline<Packet> decodePipeline;
+  // limits the number of sends waiting for the response of the server, and tracks them by transaction id
+  private final SendWindow<PendingSend> sendWindow;
+  private final long sendTimeout;
+  private final SendRateController rateController;
+  private final Set<Integer> throttleErrorCodes;
+  private volatile ScheduledFuture<?> pingTask;
+  // guards the socket writer and the sequence number
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private volatile boolean disconnectRequested = false;
   private boolean authenticated = false;
   private Socket socket;
   private BufferedWriter writer;
   private BufferedInputStream inputStream;
   private int sequenceNumber;
-  private String registration;
+  private volatile String registration;
   private CountDownLatch connectLatch = new CountDownLatch(1);
+  private volatile IOException connectionError;
   
   public NotifConnector(Skype skype, String username, String password) {
     this.skype = skype;
     this.username = username;
     this.password = password;
     microsoft = username.contains("@");
-    try {
-      documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-    } catch (ParserConfigurationException e) {
-      // Should never happen, throw RE if it does
-      throw new RuntimeException(e);
+    inboundQueue = new ArrayBlockingQueue<>(skype.getInboundQueueCapacity());
+    inboundQueuePolicy = skype.getInboundQueuePolicy();
+    if (skype.isParallelDecoding()) {
+      decodePipeline = new DecodePipeline<>(DECODE_WINDOW, skype.isDecodeOrderPerConversation(), this::decode, this::processTimed);
+    } else {
+      decodePipeline = null;
     }
-    receiverThread = new Thread(() -> {
+    sendWindow = new SendWindow<>(skype.getSendWindow());
+    sendTimeout = skype.getSendTimeout();
+    rateController = new SendRateController(skype.getMinSendRate(), skype.getMaxSendRate(), System::nanoTime);
+    throttleErrorCodes = skype.getThrottleErrorCodes();
+    // the receiver thread only reads and frames packets, so that the server connection is read even while packets are slow to process
+    // TODO should we set daemon?
+    receiverThread = Threads.newThread(() -> {
       while (!disconnectRequested) {
         try {
           Packet packet = readPacket();
           if (packet == null) {
             continue;
           }
-          processPacket(packet);
+          if (packet.command.equals("XFR")) {
+            // the redirection must be done before reading the next packet, which comes from the new server
+            processTimed(packet);
+          } else {
+            enqueue(packet);
+          }
         } catch (IOException e) {
           if (disconnectRequested) {
             // there may be errors reading from the closed stream when disconnecting
@@ -78,35 +133,196 @@ class NotifConnector {
             return;
           }
           logger.log(Level.SEVERE, "Error while reading packet", e);
-          skype.error(e);
+          connectionError = e;
+          skype.error(this, e);
           connectLatch.countDown();
           break;
+        } catch (InterruptedException e) {
+          // disconnecting
+          return;
         }
       }
-    }, "Skype-Receiver-Thread");
-    // TODO should we set daemon?
-    // receiverThread.setDaemon(true);
-    
-    pingThread = new Thread(() -> {
-      while (!Thread.interrupted() && !disconnectRequested) {
-        if (System.nanoTime() - lastMessageSentTime > pingInterval) {
-          try {
-            sendPacket("PNG", "CON", "");
-            sendPacket("PUT", "MSGR\\ACTIVEENDPOINT", "<activeendpoint><timeout>135</timeout></activeendpoint>");
-          } catch (IOException e) {
-            logger.log(Level.SEVERE, "Error while sending ping", e);
-            skype.error(e);
-            break;
+    }, "Skype-Receiver-Thread", false);
+    processorThread = Threads.newThread(() -> {
+      try {
+        if (decodePipeline == null) {
+          while (!disconnectRequested) {
+            Packet packet = pollInbound(true);
+            skype.getMetrics().queueWait("inbound", System.nanoTime() - packet.receivedTime);
+            processTimed(packet);
           }
+        } else {
+          processPipelined();
         }
+      } catch (IOException e) {
+        if (disconnectRequested) {
+          return;
+        }
+        logger.log(Level.SEVERE, "Error while processing packet", e);
+        connectionError = e;
+        skype.error(this, e);
+        connectLatch.countDown();
+      } catch (InterruptedException e) {
+        // disconnecting
+      }
+    }, "Skype-Processor-Thread", true);
+    writerThread = Threads.newThread(() -> {
+      while (!disconnectRequested) {
+        List<OutboundPacket> packets;
         try {
-          Thread.sleep(pingInterval / 1000000);
-        } catch (InterruptedException ignore) {
+          packets = outboundLanes.take(WRITE_BATCH);
+        } catch (InterruptedException e) {
+          // disconnecting
           return;
         }
+        try {
+          writePackets(packets);
+        } catch (IOException e) {
+          if (disconnectRequested) {
+            return;
+          }
+          logger.log(Level.SEVERE, "Error while writing packets", e);
+          connectionError = e;
+          skype.error(this, e);
+          connectLatch.countDown();
+          break;
+        }
+      }
+    }, "Skype-Writer-Thread", true);
+  }
+  
+  private void processPipelined() throws IOException, InterruptedException {
+    while (!disconnectRequested) {
+      // submit the packets already read, up to the window, and only block for more packets when all have been processed
+      Packet packet = pollInbound(decodePipeline.isEmpty());
+      while (packet != null) {
+        skype.getMetrics().queueWait("inbound", System.nanoTime() - packet.receivedTime);
+        decodePipeline.submit(packet, getOrderKey(packet));
+        packet = decodePipeline.isFull() ? null : pollInbound(false);
+      }
+      if (!decodePipeline.handleReady()) {
+        decodePipeline.awaitDecoded();
+      }
+    }
+  }
+  
+  // returns the conversation of a message or presence packet, or null if the packet must keep its place relative to all other packets
+  private static Object getOrderKey(Packet packet) {
+    boolean formattedPacket = packet.command.equals("SDG") && !packet.body.isEmpty()
+            || packet.command.equals("NFY") && (packet.params.equals("MSGR\\PUT") || packet.params.equals("MSGR\\DEL"));
+    if (!formattedPacket) {
+      return null;
+    }
+    // only the routing block is parsed here, which is cheap
+    try {
+      packet.formatted = FormattedMessage.parseMessage(packet.body);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    // group messages and group activity are sent to or from the group, other packets are keyed by user
+    String receiver = packet.formatted.receiver;
+    return receiver.startsWith("19:") ? receiver : packet.formatted.sender;
+  }
+  
+  // parses the costly parts of a packet without changing any state, possibly in parallel with other packets
+  private void decode(Packet packet) {
+    FormattedMessage formatted = packet.formatted;
+    try {
+      switch (packet.command) {
+        case "GET":
+          if (packet.params.equals("MSGR")) {
+            packet.document = getDocument(packet.body);
+          }
+          break;
+        case "SDG":
+          if (formatted == null) {
+            break;
+          }
+          String messageType = formatted.getType();
+          if (messageType == null) {
+            break;
+          }
+          if (messageType.startsWith("ThreadActivity/")) {
+            packet.document = getDocument(formatted.getBody());
+          } else if ((messageType.equals("Text") || messageType.equals("RichText")) && skype.isPlaintextNeeded()) {
+            packet.plaintext = getPlaintext(formatted.getBody());
+          }
+          break;
+        case "NFY":
+          if (packet.params.equals("MSGR\\PUT") && formatted != null) {
+            packet.document = getDocument(formatted.getBody());
+          } else if (packet.params.equals("MSGR\\THREAD")) {
+            packet.document = getDocument(packet.body);
+          }
+          break;
+        default:
+          break;
+      }
+    } catch (ParseException e) {
+      // thrown again when processing the packet
+      packet.decodeError = e;
+    }
+  }
+  
+  private void enqueue(Packet packet) throws InterruptedException {
+    if (inboundQueuePolicy == InboundQueuePolicy.DROP_PRESENCE && packet.command.equals("NFY")
+            && (packet.params.equals("MSGR\\PUT") || packet.params.equals("MSGR\\DEL"))) {
+      synchronized (coalescedPresences) {
+        if (coalescedPresences.isEmpty() && inboundQueue.offer(packet)) {
+          return;
+        }
+        String user = getPresenceUser(packet);
+        // this packet supersedes the presence of the same user waiting for room in the queue
+        Packet superseded = user == null ? null : coalescedPresences.remove(user);
+        if (!inboundQueue.offer(packet)) {
+          if (user == null) {
+            superseded = packet;
+          } else {
+            coalescedPresences.put(user, packet);
+          }
+        }
+        if (superseded != null) {
+          skype.getMetrics().queueDropped("inbound");
+        }
+      }
+      return;
+    }
+    inboundQueue.put(packet);
+  }
+  
+  private static String getPresenceUser(Packet packet) {
+    try {
+      packet.formatted = FormattedMessage.parseMessage(packet.body);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    return packet.formatted.sender;
+  }
+  
+  // the coalesced presences are processed once the queue is empty, after the older packets of their users
+  private Packet pollInbound(boolean block) throws InterruptedException {
+    Packet packet = inboundQueue.poll();
+    if (packet != null) {
+      return packet;
+    }
+    synchronized (coalescedPresences) {
+      Iterator<Packet> it = coalescedPresences.values().iterator();
+      if (it.hasNext()) {
+        packet = it.next();
+        it.remove();
+        return packet;
       }
-    }, "Skype-Ping-Thread");
-    pingThread.setDaemon(true);
+    }
+    // presences are only coalesced while the queue is full, so none can be missed while blocking here
+    return block ? inboundQueue.take() : null;
+  }
+  
+  private void processTimed(Packet packet) throws IOException {
+    long start = System.nanoTime();
+    Object event = Tracing.beginPacketProcess();
+    processPacket(packet);
+    Tracing.endPacketProcess(event, packet.command, packet.params, packet.body.length());
+    skype.getMetrics().packetHandled(packet.command, System.nanoTime() - start);
   }
   
   private static String generateEPID() {
@@ -134,11 +350,11 @@ class NotifConnector {
       EPIDchars[i] = hexCharacters[random.nextInt(hexCharacters.length)];
     }
     String EPID = new String(EPIDchars);
-    logger.finest("Generated EPID: " + EPID);
+    logger.finest(() -> "Generated EPID: " + EPID);
     return EPID;
   }
   
-  private static String getPlaintext(String string) {
+  static String getPlaintext(String string) {
     return Jsoup.parseBodyFragment(string).text();
   }
   
@@ -175,14 +391,18 @@ class NotifConnector {
   }
   
   private void processPacket(Packet packet) throws IOException {
-    logger.finer("Received packet " + packet.command + " " + packet.params);
-    logger.finest("Recieved packet body: " + packet.body);
+    if (logger.isLoggable(Level.FINER)) {
+      logger.finer("Received packet " + packet.command + " " + packet.params);
+    }
+    if (logger.isLoggable(Level.FINEST)) {
+      logger.finest("Recieved packet body: " + packet.body);
+    }
     switch (packet.command) {
       case "GET":
         if (packet.params.equals("MSGR")) {
           Document doc;
           try {
-            doc = getDocument(packet.body);
+            doc = getDocument(packet, packet.body);
           } catch (ParseException e) {
             logger.log(Level.FINE, "Error while parsing GET MSGR message", e);
             break;
@@ -227,21 +447,16 @@ class NotifConnector {
                 Group group = (Group) parseEntity(id);
                 if (group != null) { threadIds.add(group.getId()); }
               }
-              if (!threadIds.isEmpty()) {
+              if (skype.isLazyGroupLoading()) {
+                // groups stay id-only stubs until they are used
+                logger.finer(() -> "Lazy group loading enabled, not fetching " + threadIds.size() + " threads");
+                logger.fine("Connected! Stopped blocking.");
+                connectLatch.countDown(); // stop blocking: we're connected
+              } else if (!threadIds.isEmpty()) {
                 logger.finest("Fetching threads information");
-                StringBuilder sb = new StringBuilder("<threads>");
-                for (String threadId : threadIds) {
-                  if (sb.length() > 30000) {
-                    String body = sb.append("</threads>").toString();
-                    sendPacket("GET", "MSGR\\THREADS", body);
-                    sb.delete(0, sb.length());
-                    sb.append("<threads>");
-                  }
-                  sb.append("<thread><id>19:").append(threadId).append("@thread.skype</id></thread>");
-                }
-                String body = sb.append("</threads>").toString();
-                sendPacket("GET", "MSGR\\THREADS", body);
-                sendPacket("PNG", "CON", "");
+                requestThreads(threadIds);
+                // queued behind the thread requests, so that the pong comes after the threads responses
+                sendPacket("PNG", "CON", "", OutboundLanes.Lane.BULK);
               } else {
                 logger.finer("No threads received in recentconversations-response");
                 logger.fine("Connected! Stopped blocking.");
@@ -260,15 +475,17 @@ class NotifConnector {
         break;
       case "SDG":
         if (!packet.body.isEmpty()) {
-          FormattedMessage formatted;
+          FormattedMessage formatted = packet.formatted;
           try {
-            formatted = FormattedMessage.parseMessage(packet.body);
+            if (formatted == null) {
+              formatted = FormattedMessage.parseMessage(packet.body);
+            }
           } catch (IllegalArgumentException e) {
             // weird message with no interesting content
             logger.log(Level.FINE, "Couldn't parse SDG formatted message", e);
             break;
           }
-          String messageType = formatted.headers.get("Message-Type");
+          String messageType = formatted.getType();
           if (messageType == null) {
             break;
           }
@@ -277,32 +494,49 @@ class NotifConnector {
           if (sender == null || receiver == null) {
             break;
           }
+          String messageId = formatted.getMessageId();
+          if (messageId != null && skype.isDuplicateMessage(receiver instanceof Group ? receiver : sender, messageId)) {
+            logger.finer(() -> "Dropping duplicate message " + messageId + " from " + sender);
+            break;
+          }
           switch (messageType) {
             case "Text":
             case "RichText":
               if (!(sender instanceof User)) {
-                logger.fine("Received " + messageType + " message sent from " + sender + " which isn't a user");
+                logger.fine(() -> "Received " + messageType + " message sent from " + sender + " which isn't a user");
                 break;
               }
               if (receiver instanceof Group) {
-                skype.groupMessageReceived((Group) receiver, (User) sender, getPlaintext(formatted.body));
+                skype.groupAccessed((Group) receiver, false);
+                skype.groupMessageReceived(new MessageEvent(formatted, (User) sender, (Group) receiver, packet.receivedTimeMillis, packet.plaintext));
               } else {
-                skype.userMessageReceived((User) sender, getPlaintext(formatted.body));
+                skype.userMessageReceived(new MessageEvent(formatted, (User) sender, null, packet.receivedTimeMillis, packet.plaintext));
               }
               break;
             case "ThreadActivity/AddMember":
-              List<String> usernames = getXMLFields(formatted.body, "target");
-              skype.usersAddedToGroup(usernames.stream().map(username -> parseEntity(username)).filter(Objects::nonNull).map(u -> (User) u).collect(Collectors.toList()), (Group) sender);
+              skype.groupAccessed((Group) sender, false);
+              Document doc = getDocument(packet, formatted.getBody());
+              List<User> users = getXMLFields(doc, "target").stream().map(username -> parseEntity(username)).filter(Objects::nonNull).map(u -> (User) u).collect(Collectors.toList());
+              ((Group) sender).applyUsersAdded(users, getEventTime(doc));
+              skype.usersAddedToGroup(users, (Group) sender);
               break;
             case "ThreadActivity/DeleteMember":
-              usernames = getXMLFields(formatted.body, "target");
-              skype.usersRemovedFromGroup(usernames.stream().map(username -> parseEntity(username)).filter(Objects::nonNull).map(u -> (User) u).collect(Collectors.toList()), (Group) sender);
+              skype.groupAccessed((Group) sender, false);
+              doc = getDocument(packet, formatted.getBody());
+              users = getXMLFields(doc, "target").stream().map(username -> parseEntity(username)).filter(Objects::nonNull).map(u -> (User) u).collect(Collectors.toList());
+              ((Group) sender).applyUsersRemoved(users, getEventTime(doc));
+              skype.usersRemovedFromGroup(users, (Group) sender);
               break;
             case "ThreadActivity/TopicUpdate":
-              skype.groupTopicChanged((Group) sender, getPlaintext(getXMLField(formatted.body, "value")));
+              skype.groupAccessed((Group) sender, false);
+              doc = getDocument(packet, formatted.getBody());
+              String topic = getPlaintext(getXMLField(doc, "value"));
+              ((Group) sender).applyTopicChanged(topic, getEventTime(doc));
+              skype.groupTopicChanged((Group) sender, topic);
               break;
             case "ThreadActivity/RoleUpdate":
-              Document doc = getDocument(formatted.body);
+              skype.groupAccessed((Group) sender, false);
+              doc = getDocument(packet, formatted.getBody());
               NodeList targetNodes = doc.getElementsByTagName("target");
               List<Pair<User, Role>> roles = new ArrayList<>(targetNodes.getLength());
               outer:
@@ -327,6 +561,7 @@ class NotifConnector {
                   roles.add(new Pair<>(user, role));
                 }
               }
+              ((Group) sender).applyRolesChanged(roles, getEventTime(doc));
               skype.usersRolesChanged((Group) sender, roles);
               break;
             default:
@@ -337,7 +572,7 @@ class NotifConnector {
       case "NFY":
         switch (packet.params) {
           case "MSGR\\DEL":
-            FormattedMessage formatted = FormattedMessage.parseMessage(packet.body);
+            FormattedMessage formatted = packet.formatted != null ? packet.formatted : FormattedMessage.parseMessage(packet.body);
             Object parseUser = parseEntity(formatted.sender);
             if (parseUser == null) {
               break;
@@ -345,25 +580,26 @@ class NotifConnector {
             ((User) parseUser).setPresence(Presence.OFFLINE);
             break;
           case "MSGR\\PUT":
-            formatted = FormattedMessage.parseMessage(packet.body);
+            formatted = packet.formatted != null ? packet.formatted : FormattedMessage.parseMessage(packet.body);
             parseUser = parseEntity(formatted.sender);
             if (parseUser == null) {
               break;
             }
             User user = (User) parseUser;
-            String presenceString = getXMLField(formatted.body, "Status");
+            Document presenceDocument = getDocument(packet, formatted.getBody());
+            String presenceString = getXMLField(presenceDocument, "Status");
             if (presenceString == null) {
               // happens when a user switches from offline to "hidden"
               presenceString = Presence.OFFLINE.getPresenceString();
             }
             user.setPresence(presenceString);
-            String moodString = getXMLField(formatted.body, "Mood");
+            String moodString = getXMLField(presenceDocument, "Mood");
             if (moodString != null) {
               user.setMood(getPlaintext(moodString));
             }
             break;
           case "MSGR\\THREAD":
-            Document document = getDocument(packet.body);
+            Document document = getDocument(packet, packet.body);
             updateThread(document);
             break;
           default:
@@ -434,7 +670,7 @@ class NotifConnector {
         String challenge = getXMLField(packet.body, "nonce");
         if (challenge != null) {
           logger.severe("Nonce field sent in BND message! Challenge needed but not included in this release: nonce: " + challenge);
-          skype.error(new IOException(
+          skype.error(this, new IOException(
                   "Skype sent a nonce in the BND request, but it shouldn't do so anymore. If you see this error please open an issue on https://github.com/Delthas/JavaSkype/issues"));
         }
         String formattedPublicationBody = String.format(
@@ -451,7 +687,7 @@ class NotifConnector {
             if (contactsStringBuilder.length() > 30000) {
               contactsStringBuilder.append("</skp></ml>");
               String contactsString = contactsStringBuilder.toString();
-              sendPacket("PUT", "MSGR\\CONTACTS", contactsString);
+              sendPacket("PUT", "MSGR\\CONTACTS", contactsString, OutboundLanes.Lane.BULK);
               contactsStringBuilder.delete(0, contactsStringBuilder.length());
               contactsStringBuilder.append("<ml l=\"1\"><skp>");
             }
@@ -461,14 +697,16 @@ class NotifConnector {
           }
           contactsStringBuilder.append("</skp></ml>");
           String contactsString = contactsStringBuilder.toString();
-          sendPacket("PUT", "MSGR\\CONTACTS", contactsString);
+          sendPacket("PUT", "MSGR\\CONTACTS", contactsString, OutboundLanes.Lane.BULK);
         }
-        sendPacket("GET", "MSGR\\RECENTCONVERSATIONS", "<recentconversations><start>0</start><pagesize>100</pagesize></recentconversations>");
+        // on the lane of the contacts, so that the connection is only reported once the contacts are subscribed to
+        sendPacket("GET", "MSGR\\RECENTCONVERSATIONS", "<recentconversations><start>0</start><pagesize>100</pagesize></recentconversations>",
+                OutboundLanes.Lane.BULK);
         break;
       case "OUT":
         // we got disconnected
         logger.warning("Disconnected from Skype: " + packet.body);
-        skype.error(new IOException("Disconnected: " + packet.body));
+        skype.error(this, new IOException("Disconnected: " + packet.body));
         break;
       case "PUT":
         break;
@@ -485,88 +723,123 @@ class NotifConnector {
   }
   
   private Packet readPacket() throws IOException {
-    StringBuilder firstLineBuilder = new StringBuilder();
-    int read;
-    boolean crFlag = false;
+    // error responses to tracked packets are handled here, then the next packet is read
     while (true) {
-      if ((read = inputStream.read()) == -1) {
-        logger.warning("EOF reached in stream");
-        return null;
-      }
-      char character = (char) (read & 0xFF);
-      if (crFlag) {
+      StringBuilder firstLineBuilder = new StringBuilder();
+      int read;
+      boolean crFlag = false;
+      Object event = null;
+      boolean started = false;
+      while (true) {
+        if ((read = inputStream.read()) == -1) {
+          logger.warning("EOF reached in stream");
+          return null;
+        }
+        if (!started) {
+          // do not include the time spent waiting for the packet
+          started = true;
+          event = Tracing.beginPacketRead();
+        }
+        char character = (char) (read & 0xFF);
+        if (crFlag) {
+          if (character == '\n') {
+            break;
+          }
+          ParseException e = new ParseException("Received \\r without \\n in: " + firstLineBuilder);
+          logger.log(Level.SEVERE, "", e);
+          throw e;
+        }
         if (character == '\n') {
           break;
         }
-        ParseException e = new ParseException("Received \\r without \\n in: " + firstLineBuilder);
+        if (character == '\r') {
+          crFlag = true;
+        } else {
+          firstLineBuilder.append(character);
+        }
+      }
+      String firstLine = firstLineBuilder.toString();
+      Matcher matcherFirstLine = patternFirstLine.matcher(firstLine);
+      if (!matcherFirstLine.matches()) {
+        ParseException e = new ParseException("Error matching message first line: " + firstLine);
         logger.log(Level.SEVERE, "", e);
         throw e;
       }
-      if (character == '\n') {
-        break;
+      String command = matcherFirstLine.group(1);
+      String parameters = matcherFirstLine.group(3);
+      String payloadSizeString = matcherFirstLine.group(4);
+      int transactionId;
+      int payloadSize;
+      try {
+        transactionId = Integer.parseInt(matcherFirstLine.group(2));
+        payloadSize = Integer.parseInt(payloadSizeString);
+      } catch (NumberFormatException e) {
+        throw new ParseException(e);
       }
-      if (character == '\r') {
-        crFlag = true;
-      } else {
-        firstLineBuilder.append(character);
+      byte[] payloadRaw = new byte[payloadSize];
+      int bytesRead = 0;
+      while (bytesRead != payloadSize) {
+        int n = inputStream.read(payloadRaw, bytesRead, payloadSize - bytesRead);
+        if (n == -1) {
+          ParseException e = new ParseException("EOF when reading message payload (size: " + payloadSize + ")");
+          logger.log(Level.SEVERE, "", e);
+          throw e;
+        }
+        bytesRead += n;
       }
-    }
-    String firstLine = firstLineBuilder.toString();
-    Matcher matcherFirstLine = patternFirstLine.matcher(firstLine);
-    if (!matcherFirstLine.matches()) {
-      ParseException e = new ParseException("Error matching message first line: " + firstLine);
-      logger.log(Level.SEVERE, "", e);
-      throw e;
-    }
-    String command = matcherFirstLine.group(1);
-    String parameters = matcherFirstLine.group(2);
-    String payloadSizeString = matcherFirstLine.group(3);
-    int payloadSize;
-    try {
-      payloadSize = Integer.parseInt(payloadSizeString);
-    } catch (NumberFormatException e) {
-      throw new ParseException(e);
-    }
-    byte[] payloadRaw = new byte[payloadSize];
-    int bytesRead = 0;
-    while (bytesRead != payloadSize) {
-      int n = inputStream.read(payloadRaw, bytesRead, payloadSize - bytesRead);
-      if (n == -1) {
-        ParseException e = new ParseException("EOF when reading message payload (size: " + payloadSize + ")");
+      skype.getMetrics().packetReceived(command, firstLine.length() + 2 + payloadSize);
+      Tracing.endPacketRead(event, command, firstLine.length() + 2 + payloadSize);
+    
+      String payload = new String(payloadRaw, StandardCharsets.UTF_8);
+    
+      if (command.matches("\\d+")) {
+        if (command.equals("715")) {
+          // sometimes when sending the right <name> in BND CON\MSGR
+          // a 715 "This connection already has a feature set" can be received
+          // it seems this can be ignored, however log it just in case
+          logger.log(Level.INFO, "715 error message received:\n" + firstLine + "\n" + payload);
+          continue;
+        }
+        PendingSend send = sendWindow.get(transactionId);
+        if (send != null && throttleErrorCodes.contains(Integer.parseInt(command)) && send.attempts < MAX_SEND_ATTEMPTS
+                && sendWindow.untrack(transactionId, send)) {
+          logger.fine(() -> "Throttled by the server, retrying packet later:\n" + firstLine + "\n" + payload);
+          retrySend(send);
+          continue;
+        }
+        if (send != null) {
+          // the server rejected a tracked packet: only fail this packet, the connection is still usable
+          logger.fine(() -> "Error message received for tracked packet:\n" + firstLine + "\n" + payload);
+          completeSend(transactionId, send, new IOException("Error " + command + " received for " + send.command + ": " + payload));
+          continue;
+        }
+        ParseException e = new ParseException("Error message received:\n" + firstLine + "\n" + payload);
         logger.log(Level.SEVERE, "", e);
         throw e;
       }
-      bytesRead += n;
-    }
     
-    String payload = new String(payloadRaw, StandardCharsets.UTF_8);
-    
-    if (command.matches("\\d+")) {
-      if (command.equals("715")) {
-        // sometimes when sending the right <name> in BND CON\MSGR
-        // a 715 "This connection already has a feature set" can be received
-        // it seems this can be ignored, however log it just in case
-        logger.log(Level.INFO, "715 error message received:\n" + firstLine + "\n" + payload);
-        return readPacket();
-      }
-      ParseException e = new ParseException("Error message received:\n" + firstLine + "\n" + payload);
-      logger.log(Level.SEVERE, "", e);
-      throw e;
-    }
-    
-    Matcher matcherHeaders = patternHeaders.matcher(payload);
-    if (!matcherHeaders.find()) {
-      ParseException e = new ParseException("Couldn't find headers in payload: " + payload);
-      logger.log(Level.SEVERE, "", e);
-      throw e;
-    }
-    String newRegistration = matcherHeaders.group(1);
-    if (newRegistration != null) {
-      logger.finest("Set registration: " + newRegistration);
-      registration = newRegistration;
+      Matcher matcherHeaders = patternHeaders.matcher(payload);
+      if (!matcherHeaders.find()) {
+        ParseException e = new ParseException("Couldn't find headers in payload: " + payload);
+        logger.log(Level.SEVERE, "", e);
+        throw e;
+      }
+      String newRegistration = matcherHeaders.group(1);
+      if (newRegistration != null) {
+        if (logger.isLoggable(Level.FINEST)) {
+          logger.finest("Set registration: " + newRegistration);
+        }
+        registration = newRegistration;
+      }
+      String body = payload.substring(matcherHeaders.end());
+      PendingSend send = sendWindow.get(transactionId);
+      if (send != null && send.command.equals(command)) {
+        // acknowledge as soon as the response is read, rather than after the packets queued before it are processed
+        rateController.acknowledged(send.conversation);
+        completeSend(transactionId, send, null);
+      }
+      return new Packet(command, parameters, body);
     }
-    String body = payload.substring(matcherHeaders.end());
-    return new Packet(command, parameters, body);
   }
   
   public long connect(String loginToken, String liveToken) throws IOException, InterruptedException {
@@ -579,18 +852,42 @@ class NotifConnector {
     long nanoTime = System.nanoTime();
     connectTo(DEFAULT_SERVER_HOSTNAME, DEFAULT_SERVER_PORT);
     
+    skype.getMetrics().registerQueue("inbound", inboundQueue::size);
+    skype.getMetrics().registerQueue("outbound", outboundLanes::size);
+    writerThread.start();
+    processorThread.start();
     receiverThread.start();
     
     logger.finest("Ping interval: " + pingInterval / 1000000 + "ms");
     
     logger.finer("Waiting for connection");
     connectLatch.await(); // block until connected
+    if (connectionError != null) {
+      throw connectionError;
+    }
     
-    pingThread.start();
+    // the first ping is jittered so that the pings of many connectors are spread over the interval
+    pingTask = Scheduler.scheduleWithFixedDelay(this::ping, Scheduler.jitter(pingInterval, 0.5), pingInterval, TimeUnit.NANOSECONDS);
     
     return nanoTime + 1000000000L * 24 * 60 * 60;
   }
   
+  private void ping() {
+    // a connection error was already reported by the thread that got it
+    if (disconnectRequested || connectionError != null || System.nanoTime() - lastMessageSentTime < pingInterval) {
+      return;
+    }
+    try {
+      sendPacket("PNG", "CON", "");
+      sendPacket("PUT", "MSGR\\ACTIVEENDPOINT", "<activeendpoint><timeout>135</timeout></activeendpoint>");
+    } catch (IOException e) {
+      logger.log(Level.SEVERE, "Error while sending ping", e);
+      pingTask.cancel(false);
+      // reporting the error can disconnect and call the listeners, which must not be done on the shared scheduler
+      Threads.newThread(() -> skype.error(this, e), "Skype-Error-Thread", true).start();
+    }
+  }
+  
   public long refreshTokens(String loginToken, String liveToken) throws IOException {
     this.loginToken = loginToken;
     this.liveToken = liveToken;
@@ -614,28 +911,55 @@ class NotifConnector {
     sendMessage("19:" + group.getId() + "@thread.skype", getSanitized(message));
   }
   
+  public CompletableFuture<Void> sendUserMessageAsync(User user, String message) throws IOException, InterruptedException {
+    return sendMessageAsync("8:" + user.getUsername(), getSanitized(message));
+  }
+  
+  public CompletableFuture<Void> sendGroupMessageAsync(Group group, String message) throws IOException, InterruptedException {
+    return sendMessageAsync("19:" + group.getId() + "@thread.skype", getSanitized(message));
+  }
+  
+  public void requestThreads(List<String> threadIds) throws IOException {
+    StringBuilder sb = new StringBuilder("<threads>");
+    for (String threadId : threadIds) {
+      if (sb.length() > 30000) {
+        String body = sb.append("</threads>").toString();
+        sendPacket("GET", "MSGR\\THREADS", body, OutboundLanes.Lane.BULK);
+        sb.delete(0, sb.length());
+        sb.append("<threads>");
+      }
+      sb.append("<thread><id>19:").append(threadId).append("@thread.skype</id></thread>");
+    }
+    String body = sb.append("</threads>").toString();
+    sendPacket("GET", "MSGR\\THREADS", body, OutboundLanes.Lane.BULK);
+  }
+  
+  public boolean isProcessorThread() {
+    return Thread.currentThread() == processorThread;
+  }
+  
   public void addUserToGroup(User user, Role role, Group group) throws IOException {
     String body = String.format("<thread><id>19:%s@thread.skype</id><members><member><mri>8:%s</mri><role>%s</role></member></members></thread>",
             group.getId(), user.getUsername(), role.getRoleString());
-    sendPacket("PUT", "MSGR\\THREAD", body);
+    sendPacket("PUT", "MSGR\\THREAD", body, OutboundLanes.Lane.INTERACTIVE);
   }
   
   public void removeUserFromGroup(User user, Group group) throws IOException {
     String body = String.format("<thread><id>19:%s@thread.skype</id><members><member><mri>8:%s</mri></member></members></thread>", group.getId(),
             user.getUsername());
-    sendPacket("DEL", "MSGR\\THREAD", body);
+    sendPacket("DEL", "MSGR\\THREAD", body, OutboundLanes.Lane.INTERACTIVE);
   }
   
   public void changeGroupTopic(Group group, String topic) throws IOException {
     String body =
             String.format("<thread><id>19:%s@thread.skype</id><properties><topic>%s</topic></properties></thread>", group.getId(), getSanitized(topic));
-    sendPacket("PUT", "MSGR\\THREAD", body);
+    sendPacket("PUT", "MSGR\\THREAD", body, OutboundLanes.Lane.INTERACTIVE);
   }
   
   public void changeUserRole(User user, Role role, Group group) throws IOException {
     String body = String.format("<thread><id>19:%s@thread.skype</id><members><member><mri>8:%s</mri><role>%s</role></member></members></thread>",
             group.getId(), user.getUsername(), role.getRoleString());
-    sendPacket("PUT", "MSGR\\THREAD", body);
+    sendPacket("PUT", "MSGR\\THREAD", body, OutboundLanes.Lane.INTERACTIVE);
   }
   
   public void changePresence(Presence presence) throws IOException {
@@ -646,69 +970,327 @@ class NotifConnector {
   }
   
   private void sendMessage(String entity, String message) throws IOException {
-    String body = FormattedMessage.format("8:" + getSelfLiveUsername() + ";epid={" + EPID + "}", entity, "Messaging: 2.0", message,
+    // tracked too, so that it is paced and retried; its errors are still reported like the other errors, unless we already disconnected
+    try {
+      sendMessageAsync(entity, message).whenComplete((v, e) -> {
+        if (e != null && !disconnectRequested) {
+          skype.error(this, e instanceof IOException ? (IOException) e : new IOException("Error while sending message to " + entity, e));
+        }
+      });
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while sending message");
+    }
+  }
+  
+  public List<CompletableFuture<Void>> broadcastMessage(List<?> recipients, String message) throws IOException {
+    List<String> entities = recipients.stream().map(NotifConnector::getEntity).collect(Collectors.toList());
+    if (disconnectRequested || connectionError != null) {
+      throw new IOException("Not connected, can't send message");
+    }
+    // sanitized and formatted once, only the receiver changes between the packets
+    FormattedMessage.Template template = FormattedMessage.template("8:" + getSelfLiveUsername() + ";epid={" + EPID + "}", "Messaging: 2.0",
+            getSanitized(message), "Content-Type: application/user+xml", "Message-Type: RichText");
+    List<CompletableFuture<Void>> futures = new ArrayList<>(entities.size());
+    Throwable error = null;
+    for (String entity : entities) {
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      futures.add(future);
+      if (error == null && (disconnectRequested || connectionError != null)) {
+        error = new IOException("Disconnected before the message was sent");
+      }
+      if (error != null) {
+        // once the window times out or the connection is lost, the remaining messages fail immediately
+        future.completeExceptionally(error);
+        continue;
+      }
+      PendingSend send = new PendingSend("SDG", "MSGR", template.format(entity), template.size(entity), OutboundLanes.Lane.BULK, entity, future);
+      try {
+        if (!acquireSendWindow(send)) {
+          error = new TimeoutException("Timed out waiting for previous messages to be acknowledged");
+          continue;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        error = e;
+        future.completeExceptionally(e);
+        continue;
+      }
+      queuePaced(send);
+    }
+    return futures;
+  }
+  
+  private static String getEntity(Object recipient) {
+    if (recipient instanceof User) {
+      return "8:" + ((User) recipient).getUsername();
+    }
+    if (recipient instanceof Group) {
+      return "19:" + ((Group) recipient).getId() + "@thread.skype";
+    }
+    throw new IllegalArgumentException("Recipients must be users or groups, got: " + recipient);
+  }
+  
+  // blocks while the window is full, until a pending send is acknowledged or times out
+  private boolean acquireSendWindow(PendingSend send) throws InterruptedException {
+    if (sendWindow.acquire(send, sendTimeout)) {
+      return true;
+    }
+    skype.getMetrics().sendFailed(send.command);
+    send.future.completeExceptionally(new TimeoutException("Timed out waiting for previous messages to be acknowledged"));
+    return false;
+  }
+  
+  private CompletableFuture<Void> sendMessageAsync(String entity, String message) throws IOException, InterruptedException {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    PendingSend send = new PendingSend("SDG", "MSGR", formatMessage(entity, message), -1, OutboundLanes.Lane.INTERACTIVE, entity, future);
+    if (!acquireSendWindow(send)) {
+      return future;
+    }
+    if (disconnectRequested || connectionError != null) {
+      IOException e = new IOException("Not connected, can't send message");
+      completeSend(send, e);
+      throw e;
+    }
+    queuePaced(send);
+    return future;
+  }
+  
+  // queues a tracked packet when the rate controller allows it; the send window already bounds the number of such packets
+  private void queuePaced(PendingSend send) {
+    OutboundPacket packet = new OutboundPacket(send.command, send.parameters, send.body, send.bodySize, send);
+    long delay = rateController.reserve(send.conversation);
+    if (delay <= 0) {
+      queueTracked(send.lane, packet);
+    } else {
+      Scheduler.scheduleCompletion(() -> queueTracked(send.lane, packet), delay, TimeUnit.NANOSECONDS);
+    }
+  }
+  
+  private void queueTracked(OutboundLanes.Lane lane, OutboundPacket packet) {
+    if (!disconnectRequested) {
+      outboundLanes.add(lane, packet);
+    }
+    if (disconnectRequested) {
+      // disconnected before or while queuing the packet, the lanes won't be drained anymore
+      failUnsent(packet);
+      for (OutboundPacket unsent : outboundLanes.clear()) {
+        failUnsent(unsent);
+      }
+    }
+  }
+  
+  private void retrySend(PendingSend send) {
+    ScheduledFuture<?> timeoutTask = send.timeoutTask;
+    if (timeoutTask != null) {
+      timeoutTask.cancel(false);
+    }
+    skype.getMetrics().sendThrottled(send.command);
+    rateController.throttled(send.conversation);
+    queuePaced(send);
+  }
+  
+  private String formatMessage(String entity, String message) {
+    return FormattedMessage.format("8:" + getSelfLiveUsername() + ";epid={" + EPID + "}", entity, "Messaging: 2.0", message,
             "Content-Type: application/user+xml", "Message-Type: RichText");
-    sendPacket("SDG", "MSGR", body);
   }
   
-  public synchronized void disconnect() {
-    logger.finer("Stopping notification connector");
+  private void completeSend(int transactionId, PendingSend send, Exception error) {
+    sendWindow.untrack(transactionId, send);
+    completeSend(send, error);
+  }
+  
+  // completes a tracked send, unless it was already completed; the send window slot is released once
+  private void completeSend(PendingSend send, Exception error) {
+    if (!sendWindow.release(send)) {
+      return;
+    }
+    ScheduledFuture<?> timeoutTask = send.timeoutTask;
+    if (timeoutTask != null) {
+      timeoutTask.cancel(false);
+    }
+    if (error == null) {
+      skype.getMetrics().sendAcknowledged(send.command, System.nanoTime() - send.writeTime);
+      send.future.complete(null);
+    } else {
+      skype.getMetrics().sendFailed(send.command);
+      send.future.completeExceptionally(error);
+    }
+  }
+  
+  private void failPendingSends(String reason) {
+    sendWindow.forEachTracked((transactionId, send) -> completeSend(transactionId, send, new IOException(reason)));
+  }
+  
+  boolean isConnectionError(IOException e) {
+    return e == connectionError;
+  }
+  
+  public void disconnect() {
+    writeLock.lock();
     try {
-      sendPacket("OUT", "CON", "");
-    } catch (IOException e) {
-      // we're closing anyway
-      logger.log(Level.FINE, "Error received while disconnecting", e);
-    }
-    authenticated = false;
-    disconnectRequested = true;
-    receiverThread.interrupt();
-    pingThread.interrupt();
-    connectLatch.countDown();
-    if (socket != null) {
-      try {
-        socket.close();
-      } catch (IOException e) {
-        // ignore any error during close
-        logger.log(Level.WARNING, "Error while trying to close the socket", e);
+      logger.finer("Stopping notification connector");
+      if (writer != null) {
+        try {
+          // written directly, the queued packets are dropped
+          writeDirect("OUT", "CON", "");
+        } catch (IOException e) {
+          // we're closing anyway
+          logger.log(Level.FINE, "Error received while disconnecting", e);
+        }
+      }
+      authenticated = false;
+      disconnectRequested = true;
+      failPendingSends("Disconnected before the packet was acknowledged");
+      for (OutboundPacket packet : outboundLanes.clear()) {
+        failUnsent(packet);
       }
+      receiverThread.interrupt();
+      processorThread.interrupt();
+      writerThread.interrupt();
+      skype.getMetrics().unregisterQueue("inbound");
+      skype.getMetrics().unregisterQueue("outbound");
+      if (pingTask != null) {
+        pingTask.cancel(false);
+      }
+      connectLatch.countDown();
+      if (socket != null) {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // ignore any error during close
+          logger.log(Level.WARNING, "Error while trying to close the socket", e);
+        }
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+  
+  private void sendPacket(String command, String parameters, String body) throws IOException {
+    sendPacket(command, parameters, body, OutboundLanes.Lane.CONTROL);
+  }
+  
+  // queues the packet to the writer thread; the packets of a lane are written in the order they are queued
+  private void sendPacket(String command, String parameters, String body, OutboundLanes.Lane lane) throws IOException {
+    if (disconnectRequested || connectionError != null) {
+      throw new IOException("Not connected, can't send " + command + " packet");
+    }
+    try {
+      outboundLanes.put(lane, new OutboundPacket(command, parameters, body, -1, null));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while queuing " + command + " packet");
     }
   }
   
-  private synchronized void sendPacket(String command, String parameters, String body) throws IOException {
+  // writes the packets and flushes once, so that bursts of small packets are written together
+  private void writePackets(List<OutboundPacket> packets) throws IOException {
+    writeLock.lock();
+    int written = 0;
+    try {
+      for (OutboundPacket packet : packets) {
+        if (disconnectRequested) {
+          break;
+        }
+        writePacket(packet.command, packet.parameters, packet.body, packet.bodySize, packet.pending);
+        written++;
+      }
+      writer.flush();
+      lastMessageSentTime = System.nanoTime();
+    } finally {
+      writeLock.unlock();
+      // the packets not written because of an error or a disconnection are dropped
+      for (OutboundPacket packet : packets.subList(written, packets.size())) {
+        failUnsent(packet);
+      }
+    }
+  }
+  
+  // writes a packet without queuing it, for the packets that must be sent before any queued packet
+  private void writeDirect(String command, String parameters, String body) throws IOException {
+    writeLock.lock();
+    try {
+      writePacket(command, parameters, body, -1, null);
+      writer.flush();
+      lastMessageSentTime = System.nanoTime();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+  
+  private void failUnsent(OutboundPacket packet) {
+    if (packet.pending != null) {
+      completeSend(packet.pending, new IOException("Disconnected before the packet was sent"));
+    }
+  }
+  
+  // must be called with writeLock held; the writer must be flushed afterwards; knownBodySize is -1 if the size isn't known yet
+  private void writePacket(String command, String parameters, String body, int knownBodySize, PendingSend pending) throws IOException {
+    int transactionId = ++sequenceNumber;
     String headerString = registration != null ? "Registration: " + registration + "\r\n" : "";
-    String messageString = String.format("%s %d %s %d\r\n%s\r\n%s", command, ++sequenceNumber, parameters,
-            body.getBytes(StandardCharsets.UTF_8).length + 2 + headerString.length(), headerString, body);
+    int bodySize = knownBodySize >= 0 ? knownBodySize : body.getBytes(StandardCharsets.UTF_8).length;
+    String messageString = String.format("%s %d %s %d\r\n%s\r\n%s", command, transactionId, parameters, bodySize + 2 + headerString.length(),
+            headerString, body);
+    if (pending != null) {
+      pending.attempts++;
+      pending.writeTime = System.nanoTime();
+      // registered before writing, as the response can be read as soon as the packet is written
+      sendWindow.track(transactionId, pending);
+      pending.timeoutTask = Scheduler.scheduleCompletion(
+              () -> completeSend(transactionId, pending, new TimeoutException("No response received for " + command + " after " + sendTimeout + "ms")),
+              sendTimeout, TimeUnit.MILLISECONDS);
+    }
     try {
       writer.write(messageString);
-      writer.flush();
     } catch (IOException e) {
       logger.log(Level.SEVERE, "Error while trying to send message: " + messageString, e);
+      if (pending != null) {
+        completeSend(transactionId, pending, e);
+      }
       throw e;
     }
-    logger.finest("Sent packet: " + messageString);
-    lastMessageSentTime = System.nanoTime();
+    if (logger.isLoggable(Level.FINEST)) {
+      logger.finest("Sent packet: " + messageString);
+    }
+    skype.getMetrics().packetSent(command, messageString.length() - body.length() + bodySize);
   }
   
   private void connectTo(String hostname, int port) throws IOException {
-    logger.finest("Connecting to hostname: " + hostname + " port: " + port);
-    if (socket != null) {
-      socket.close();
+    logger.finest(() -> "Connecting to hostname: " + hostname + " port: " + port);
+    // the writer thread may be writing packets while the receiver thread handles a redirection
+    writeLock.lock();
+    try {
+      if (socket != null) {
+        socket.close();
+      }
+      socket = SSLSocketFactory.getDefault().createSocket(hostname, port);
+      writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+      inputStream = new BufferedInputStream(socket.getInputStream());
+      // transaction ids restart with the new connection
+      failPendingSends("Redirected to another server before the packet was acknowledged");
+      sequenceNumber = 0;
+      writeDirect("CNT", "CON", "<connect><ver>2</ver><agent><os>Windows</os><osVer>Windows 10.0  (build</osVer><proc>8 3600 I-586-6-45-7 Intel Core i</proc><lcid>en-US</lcid></agent></connect>");
+    } finally {
+      writeLock.unlock();
     }
-    socket = SSLSocketFactory.getDefault().createSocket(hostname, port);
-    writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
-    inputStream = new BufferedInputStream(socket.getInputStream());
-    sequenceNumber = 0;
-    sendPacket("CNT", "CON", "<connect><ver>2</ver><agent><os>Windows</os><osVer>Windows 10.0  (build</osVer><proc>8 3600 I-586-6-45-7 Intel Core i</proc><lcid>en-US</lcid></agent></connect>");
   }
   
   private void updateThread(Node threadNode) {
     Group group = null;
     String topic = null;
     Node members = null;
+    long version = -1;
     for (int i = 0; i < threadNode.getChildNodes().getLength(); i++) {
       Node node = threadNode.getChildNodes().item(i);
       if (node.getNodeName().equals("id")) {
         group = (Group) parseEntity(node.getTextContent());
+      } else if (node.getNodeName().equals("version")) {
+        try {
+          version = Long.parseLong(node.getTextContent().trim());
+        } catch (NumberFormatException e) {
+          logger.log(Level.FINE, "Couldn't parse thread version: " + node.getTextContent(), e);
+        }
       } else if (node.getNodeName().equals("members")) {
         members = node;
       } else if (node.getNodeName().equals("properties")) {
@@ -740,7 +1322,9 @@ class NotifConnector {
             continue outer;
           }
           user = (User) parseUser;
-          skype.updateUser(user);
+          if (!skype.isLazyGroupLoading()) {
+            skype.updateUser(user);
+          }
         } else if (memberPropertyNode.getNodeName().equals("role")) {
           role = Role.getRole(memberPropertyNode.getTextContent());
         }
@@ -749,13 +1333,15 @@ class NotifConnector {
         users.add(new Pair<>(user, role));
       }
     }
-    group.setTopic(topic);
-    group.setUsers(users);
+    group.applySnapshot(topic, users, version);
+    skype.groupLoaded(group);
   }
   
   private Object parseEntity(String rawEntity) {
     // returns a user or a group
-    logger.finest("Parsing entity " + rawEntity);
+    if (logger.isLoggable(Level.FINEST)) {
+      logger.finest("Parsing entity " + rawEntity);
+    }
     int senderBegin = rawEntity.indexOf(':');
     int network;
     try {
@@ -795,7 +1381,7 @@ class NotifConnector {
   
   private Document getDocument(String XML) throws ParseException {
     try {
-      return documentBuilder.parse(new InputSource(new StringReader(XML)));
+      return documentBuilder.get().parse(new InputSource(new StringReader(XML)));
     } catch (IOException | SAXException e) {
       // IOException should never happen, but treat as ParseException anyway
       logger.log(Level.WARNING, "Error while parsing XML String: " + XML, e);
@@ -803,8 +1389,23 @@ class NotifConnector {
     }
   }
   
+  // returns the document decoded from the packet, if any
+  private Document getDocument(Packet packet, String XML) throws ParseException {
+    if (packet.decodeError != null) {
+      throw packet.decodeError;
+    }
+    if (packet.document != null) {
+      return packet.document;
+    }
+    return getDocument(XML);
+  }
+  
   private List<String> getXMLFields(String XML, String fieldName) throws ParseException {
-    NodeList nodes = getDocument(XML).getElementsByTagName(fieldName);
+    return getXMLFields(getDocument(XML), fieldName);
+  }
+  
+  private static List<String> getXMLFields(Document doc, String fieldName) {
+    NodeList nodes = doc.getElementsByTagName(fieldName);
     List<String> fields = new ArrayList<>(nodes.getLength());
     for (int i = 0; i < nodes.getLength(); i++) {
       fields.add(nodes.item(i).getTextContent());
@@ -813,7 +1414,11 @@ class NotifConnector {
   }
   
   private String getXMLField(String XML, String fieldName) throws ParseException {
-    List<String> fields = getXMLFields(XML, fieldName);
+    return getXMLField(getDocument(XML), fieldName);
+  }
+  
+  private static String getXMLField(Document doc, String fieldName) throws ParseException {
+    List<String> fields = getXMLFields(doc, fieldName);
     if (fields.size() > 1) {
       throw new ParseException();
     }
@@ -823,6 +1428,20 @@ class NotifConnector {
     return fields.get(0);
   }
   
+  private static long getEventTime(Document doc) throws ParseException {
+    // thread activity messages contain the server time of the event in milliseconds
+    String eventTime = getXMLField(doc, "eventtime");
+    if (eventTime == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(eventTime.trim());
+    } catch (NumberFormatException e) {
+      logger.log(Level.FINE, "Couldn't parse thread activity event time: " + eventTime, e);
+      return -1;
+    }
+  }
+  
   private String getSelfLiveUsername() {
     if (microsoft) {
       return "live:" + username.substring(0, username.indexOf('@'));
@@ -831,10 +1450,62 @@ class NotifConnector {
     }
   }
   
+  private static final class PendingSend {
+    final String command;
+    final String parameters;
+    final String body;
+    final int bodySize;
+    final OutboundLanes.Lane lane;
+    // the entity the packet is sent to, for the rate controller
+    final String conversation;
+    final CompletableFuture<Void> future;
+    // written by the writer thread
+    volatile int attempts;
+    volatile long writeTime;
+    volatile ScheduledFuture<?> timeoutTask;
+  
+    PendingSend(String command, String parameters, String body, int bodySize, OutboundLanes.Lane lane, String conversation,
+                CompletableFuture<Void> future) {
+      this.command = command;
+      this.parameters = parameters;
+      this.body = body;
+      this.bodySize = bodySize;
+      this.lane = lane;
+      this.conversation = conversation;
+      this.future = future;
+    }
+  }
+  
+  private static final class OutboundPacket {
+    final String command;
+    final String parameters;
+    final String body;
+    final int bodySize;
+    final PendingSend pending;
+  
+    OutboundPacket(String command, String parameters, String body, int bodySize, PendingSend pending) {
+      this.command = command;
+      this.parameters = parameters;
+      this.body = body;
+      this.bodySize = bodySize;
+      this.pending = pending;
+    }
+  }
+  
   private static class Packet {
     public final String command;
     public final String params;
     public final String body;
+    // System.nanoTime() when the packet was read
+    public final long receivedTime = System.nanoTime();
+    // System.currentTimeMillis() when the packet was read, the receive time of its message
+    public final long receivedTimeMillis = System.currentTimeMillis();
+    // parts of the packet decoded before processing it, if parallel decoding is enabled
+    // (published to the processor thread by the decode pipeline)
+    FormattedMessage formatted;
+    Document document;
+    String plaintext;
+    ParseException decodeError;
   
     public Packet(String command, String params, String body) {
       this.command = command;
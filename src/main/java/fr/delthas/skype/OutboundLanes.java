@@ -0,0 +1,168 @@
+package fr.delthas.skype;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The queues of the packets waiting to be written to the server, by priority class.
+ * <p>
+ * Control packets always go first. The other lanes share the remaining bandwidth by weighted round robin, so that bulk sends can't starve
+ * interactive messages, and interactive messages can't starve bulk sends either. The control lane is unbounded (it carries a few small packets),
+ * the other lanes block their producers when full.
+ *
+ * @param <T> The type of the queued packets.
+ */
+final class OutboundLanes<T> {
+  private final int capacity;
+  private final int interactiveWeight;
+  private final int bulkWeight;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final Map<Lane, ArrayDeque<T>> queues = new EnumMap<>(Lane.class);
+  // position in the cycle of interactiveWeight + bulkWeight turns, guarded by lock
+  private int turn;
+  
+  OutboundLanes(int capacity, int interactiveWeight, int bulkWeight) {
+    this.capacity = capacity;
+    this.interactiveWeight = interactiveWeight;
+    this.bulkWeight = bulkWeight;
+    for (Lane lane : Lane.values()) {
+      queues.put(lane, new ArrayDeque<>());
+    }
+  }
+  
+  /**
+   * Queues a packet, blocking while its lane is full.
+   */
+  void put(Lane lane, T packet) throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      ArrayDeque<T> queue = queues.get(lane);
+      while (lane != Lane.CONTROL && queue.size() >= capacity) {
+        notFull.await();
+      }
+      queue.add(packet);
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Queues a packet even if its lane is full, for packets already bounded by other means.
+   */
+  void add(Lane lane, T packet) {
+    lock.lock();
+    try {
+      queues.get(lane).add(packet);
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Takes the next packets to write, in priority order, blocking until there is at least one.
+   *
+   * @param max The maximum number of packets to take.
+   */
+  List<T> take(int max) throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      T packet;
+      while ((packet = poll()) == null) {
+        notEmpty.await();
+      }
+      List<T> packets = new ArrayList<>(Math.min(max, 16));
+      packets.add(packet);
+      while (packets.size() < max && (packet = poll()) != null) {
+        packets.add(packet);
+      }
+      notFull.signalAll();
+      return packets;
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Removes all the queued packets.
+   *
+   * @return The removed packets.
+   */
+  List<T> clear() {
+    lock.lock();
+    try {
+      List<T> packets = new ArrayList<>();
+      for (ArrayDeque<T> queue : queues.values()) {
+        packets.addAll(queue);
+        queue.clear();
+      }
+      notFull.signalAll();
+      return packets;
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  int size() {
+    lock.lock();
+    try {
+      int size = 0;
+      for (ArrayDeque<T> queue : queues.values()) {
+        size += queue.size();
+      }
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  private T poll() {
+    T packet = queues.get(Lane.CONTROL).poll();
+    if (packet != null) {
+      return packet;
+    }
+    ArrayDeque<T> interactive = queues.get(Lane.INTERACTIVE);
+    ArrayDeque<T> bulk = queues.get(Lane.BULK);
+    if (turn < interactiveWeight) {
+      packet = interactive.poll();
+      if (packet == null) {
+        packet = bulk.poll();
+      }
+    } else {
+      packet = bulk.poll();
+      if (packet == null) {
+        packet = interactive.poll();
+      }
+    }
+    if (packet != null) {
+      turn = (turn + 1) % (interactiveWeight + bulkWeight);
+    }
+    return packet;
+  }
+  
+  /**
+   * The priority class of an outbound packet.
+   */
+  enum Lane {
+    /**
+     * Keepalives, authentication and presence: always written first.
+     */
+    CONTROL,
+    /**
+     * Messages and actions of the user.
+     */
+    INTERACTIVE,
+    /**
+     * Large or numerous packets, such as contact list chunks and thread requests.
+     */
+    BULK
+  }
+}
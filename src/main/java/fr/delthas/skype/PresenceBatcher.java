@@ -0,0 +1,116 @@
+package fr.delthas.skype;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Accumulates presence changes for {@link UserPresenceBatchListener}s, collapsing successive changes of the same user.
+ * <p>
+ * Changes received before {@link #releaseBarrier()} (that is, while connecting, which doesn't include most of the initial presences of the
+ * contacts) are delivered as one initial batch. Afterwards, a batch is delivered
+ * when the time window since its first change elapses, or as soon as it holds the maximum number of changes.
+ */
+final class PresenceBatcher {
+  private final Skype skype;
+  private final long windowMillis;
+  private final int maxBatchSize;
+  // held while delivering a batch, so that batches are delivered one at a time and in order
+  private final ReentrantLock deliveryLock = new ReentrantLock();
+  private final Map<User, PresenceChange> pending = new LinkedHashMap<>();
+  private boolean barrier = true;
+  private boolean closed = false;
+  private ScheduledFuture<?> flushTask;
+  
+  PresenceBatcher(Skype skype, long windowMillis, int maxBatchSize) {
+    this.skype = skype;
+    this.windowMillis = windowMillis;
+    this.maxBatchSize = maxBatchSize;
+  }
+  
+  void presenceChanged(User user, Presence oldPresence, Presence presence) {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      PresenceChange previous = pending.get(user);
+      Presence initialPresence = previous == null ? oldPresence : previous.getOldPresence();
+      if (initialPresence == presence) {
+        // the user flapped back to its presence at the start of the batch
+        pending.remove(user);
+      } else {
+        pending.put(user, new PresenceChange(user, initialPresence, presence));
+      }
+      if (barrier) {
+        return;
+      }
+      if (pending.size() < maxBatchSize) {
+        if (flushTask == null && !pending.isEmpty()) {
+          // the flush calls the listeners: only its trigger runs on the shared scheduler
+          flushTask = Scheduler.schedule(() -> Threads.newThread(this::flush, "Skype-Presence-Thread", true).start(), windowMillis,
+                  TimeUnit.MILLISECONDS);
+        }
+        return;
+      }
+    }
+    flush();
+  }
+  
+  void releaseBarrier() {
+    deliveryLock.lock();
+    try {
+      List<PresenceChange> presences;
+      synchronized (this) {
+        if (!barrier || closed) {
+          return;
+        }
+        barrier = false;
+        presences = takePending();
+      }
+      skype.userPresencesInitialized(presences);
+    } finally {
+      deliveryLock.unlock();
+    }
+  }
+  
+  void flush() {
+    deliveryLock.lock();
+    try {
+      List<PresenceChange> changes;
+      synchronized (this) {
+        if (barrier || closed) {
+          return;
+        }
+        changes = takePending();
+      }
+      if (!changes.isEmpty()) {
+        skype.userPresencesChanged(changes);
+      }
+    } finally {
+      deliveryLock.unlock();
+    }
+  }
+  
+  synchronized void close() {
+    closed = true;
+    pending.clear();
+    if (flushTask != null) {
+      flushTask.cancel(false);
+      flushTask = null;
+    }
+  }
+  
+  private List<PresenceChange> takePending() {
+    List<PresenceChange> changes = new ArrayList<>(pending.values());
+    pending.clear();
+    if (flushTask != null) {
+      flushTask.cancel(false);
+      flushTask = null;
+    }
+    return changes;
+  }
+}
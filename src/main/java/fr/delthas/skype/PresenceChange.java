@@ -0,0 +1,42 @@
+package fr.delthas.skype;
+
+/**
+ * An immutable change of the presence of a user, as delivered to a {@link UserPresenceBatchListener}.
+ */
+public final class PresenceChange {
+  private final User user;
+  private final Presence oldPresence;
+  private final Presence presence;
+  
+  PresenceChange(User user, Presence oldPresence, Presence presence) {
+    this.user = user;
+    this.oldPresence = oldPresence;
+    this.presence = presence;
+  }
+  
+  /**
+   * @return The user whom presence changed.
+   */
+  public User getUser() {
+    return user;
+  }
+  
+  /**
+   * @return The presence the user had before it changed.
+   */
+  public Presence getOldPresence() {
+    return oldPresence;
+  }
+  
+  /**
+   * @return The new presence of the user.
+   */
+  public Presence getPresence() {
+    return presence;
+  }
+  
+  @Override
+  public String toString() {
+    return "Presence Change: User: " + user.getUsername() + " from: " + oldPresence + " to: " + presence;
+  }
+}
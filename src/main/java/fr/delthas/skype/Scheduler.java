@@ -0,0 +1,64 @@
+package fr.delthas.skype;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The process-wide scheduler running the periodic tasks of all Skype interfaces (keepalive pings and token refresh triggers), so that idle
+ * interfaces don't need threads of their own.
+ * <p>
+ * Tasks must be short, must not block, and must not call application listeners. Tasks that complete futures of the application must be scheduled
+ * with {@link #scheduleCompletion(Runnable, long, TimeUnit)}.
+ */
+final class Scheduler {
+  private static final ScheduledThreadPoolExecutor executor = createExecutor();
+  
+  private Scheduler() {
+    // prevent instantiation
+    throw new IllegalStateException("This class cannot be instantiated");
+  }
+  
+  private static ScheduledThreadPoolExecutor createExecutor() {
+    AtomicInteger threadCount = new AtomicInteger();
+    int threads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads, r -> {
+      Thread thread = new Thread(r, "Skype-Scheduler-Thread-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    // cancelled tasks of disconnected interfaces must not stay in the queue until their deadline
+    executor.setRemoveOnCancelPolicy(true);
+    return executor;
+  }
+  
+  static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+    return executor.schedule(task, delay, unit);
+  }
+  
+  /**
+   * Schedules a task that completes futures of the application. The task runs on the common pool rather than on the scheduler threads, as the
+   * actions chained by the application to the futures run on the thread that completes them.
+   */
+  static ScheduledFuture<?> scheduleCompletion(Runnable task, long delay, TimeUnit unit) {
+    return executor.schedule(() -> ForkJoinPool.commonPool().execute(task), delay, unit);
+  }
+  
+  static ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+    return executor.scheduleWithFixedDelay(task, initialDelay, delay, unit);
+  }
+  
+  /**
+   * @return The delay randomly shortened or lengthened by up to the specified fraction, so that many interfaces don't run a task at the same time.
+   */
+  static long jitter(long delay, double fraction) {
+    long spread = (long) (delay * fraction);
+    if (spread <= 0) {
+      return delay;
+    }
+    return delay - spread + ThreadLocalRandom.current().nextLong(2 * spread + 1);
+  }
+}
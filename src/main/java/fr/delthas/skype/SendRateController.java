@@ -0,0 +1,91 @@
+package fr.delthas.skype;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Paces the messages sent to the server with an AIMD (additive increase, multiplicative decrease) rate, driven by the throttling errors of the
+ * server.
+ * <p>
+ * Each acknowledged message raises the rate by 1/rate messages per second, that is by about one message per second each second at full speed.
+ * Each throttling error halves the rate (at most once per second, as a burst of messages sent too fast is rejected all at once), pauses all
+ * sends for a second, and pauses the sends to the throttled conversation for a delay doubled at each consecutive error of this conversation.
+ */
+final class SendRateController {
+  private static final long SECOND = 1000000000L;
+  private static final long GLOBAL_PAUSE = SECOND;
+  private static final long MIN_DECREASE_INTERVAL = SECOND;
+  private static final long INITIAL_CONVERSATION_BACKOFF = SECOND;
+  private static final long MAX_CONVERSATION_BACKOFF = 60 * SECOND;
+  private final double minRate;
+  private final double maxRate;
+  private final LongSupplier nanoClock;
+  // the conversations throttled since their last acknowledged message
+  private final Map<Object, Backoff> backoffs = new HashMap<>();
+  private double rate;
+  private long nextSendTime;
+  private long pausedUntil;
+  private long lastDecreaseTime;
+  private boolean decreased;
+  
+  SendRateController(double minRate, double maxRate, LongSupplier nanoClock) {
+    this.minRate = minRate;
+    this.maxRate = maxRate;
+    this.nanoClock = nanoClock;
+    rate = maxRate;
+    nextSendTime = nanoClock.getAsLong();
+    pausedUntil = nextSendTime;
+  }
+  
+  /**
+   * Reserves the next send slot of a conversation.
+   *
+   * @return The delay in nanoseconds before the message can be sent.
+   */
+  synchronized long reserve(Object conversation) {
+    long now = nanoClock.getAsLong();
+    long interval = (long) (SECOND / rate);
+    long start = later(now, later(nextSendTime, pausedUntil));
+    nextSendTime = start + interval;
+    Backoff backoff = backoffs.get(conversation);
+    if (backoff != null) {
+      // the paused conversation doesn't hold up the others, and its messages stay spaced once it resumes
+      start = later(start, backoff.pausedUntil);
+      backoff.pausedUntil = start + interval;
+    }
+    return start - now;
+  }
+  
+  synchronized void acknowledged(Object conversation) {
+    rate = Math.min(maxRate, rate + 1 / rate);
+    backoffs.remove(conversation);
+  }
+  
+  synchronized void throttled(Object conversation) {
+    long now = nanoClock.getAsLong();
+    if (!decreased || now - lastDecreaseTime >= MIN_DECREASE_INTERVAL) {
+      decreased = true;
+      lastDecreaseTime = now;
+      rate = Math.max(minRate, rate / 2);
+      pausedUntil = later(pausedUntil, now + GLOBAL_PAUSE);
+    }
+    Backoff backoff = backoffs.computeIfAbsent(conversation, c -> new Backoff());
+    backoff.delay = backoff.delay == 0 ? INITIAL_CONVERSATION_BACKOFF : Math.min(MAX_CONVERSATION_BACKOFF, backoff.delay * 2);
+    backoff.pausedUntil = now + backoff.delay;
+  }
+  
+  synchronized double getRate() {
+    return rate;
+  }
+  
+  // nano times must be compared by difference, as they can overflow
+  private static long later(long a, long b) {
+    return a - b >= 0 ? a : b;
+  }
+  
+  private static final class Backoff {
+    long delay;
+    long pausedUntil;
+  }
+}
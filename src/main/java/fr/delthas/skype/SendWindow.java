@@ -0,0 +1,79 @@
+package fr.delthas.skype;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * The window of the tracked packets sent to the server and not acknowledged yet.
+ * <p>
+ * A slot is taken before a packet is queued, blocking while the window is full. It is released once the packet is done: when its response is
+ * received, when it times out, or when it fails because of a disconnection. A packet can be done several ways concurrently (for example a
+ * response read while it times out), its slot is only released by the first one.
+ *
+ * @param <T> The type of the tracked packets.
+ */
+final class SendWindow<T> {
+  private final Semaphore permits;
+  // the packets holding a slot
+  private final Set<T> open = ConcurrentHashMap.newKeySet();
+  // the written packets waiting for a response, by transaction id
+  private final ConcurrentMap<Integer, T> tracked = new ConcurrentHashMap<>();
+  
+  SendWindow(int size) {
+    permits = new Semaphore(size);
+  }
+  
+  /**
+   * Takes a slot for a packet, blocking while the window is full.
+   *
+   * @return false if no slot was released before the timeout.
+   */
+  boolean acquire(T packet, long timeoutMillis) throws InterruptedException {
+    if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+      return false;
+    }
+    open.add(packet);
+    return true;
+  }
+  
+  /**
+   * Registers a written packet, whose response will have this transaction id.
+   */
+  void track(int transactionId, T packet) {
+    tracked.put(transactionId, packet);
+  }
+  
+  T get(int transactionId) {
+    return tracked.get(transactionId);
+  }
+  
+  /**
+   * Unregisters a written packet, keeping its slot, for example to write it again.
+   *
+   * @return false if the packet was already unregistered.
+   */
+  boolean untrack(int transactionId, T packet) {
+    return tracked.remove(transactionId, packet);
+  }
+  
+  /**
+   * Releases the slot of a packet.
+   *
+   * @return true if the slot was released, false if it was already released.
+   */
+  boolean release(T packet) {
+    if (!open.remove(packet)) {
+      return false;
+    }
+    permits.release();
+    return true;
+  }
+  
+  void forEachTracked(BiConsumer<Integer, T> action) {
+    tracked.forEach(action);
+  }
+}
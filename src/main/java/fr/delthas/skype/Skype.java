@@ -1,8 +1,19 @@
 package fr.delthas.skype;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.jsoup.HttpStatusException;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.*;
 import java.util.stream.Collectors;
 
@@ -10,7 +21,9 @@ import java.util.stream.Collectors;
  * A Skype interface to receive and send messages via a Skype account.
  * <p>
  * All IO exceptions that might be thrown by any action are catched and passed to the registered error listener and disconnect the interface
- * immediately.
+ * immediately. The only exception is an HTTP error status returned for a contact action (such as {@link User#block()}): it means the server
+ * rejected that action but the connection is still usable, so it is only logged. The asynchronous variants of these actions (such as
+ * {@link User#blockAsync()}) report it to the caller instead.
  * <p>
  * <b>Note:</b> All strings passed to user/group/skype objects will have their control characters removed (0x00-0x1F and 0x7F-0x9F) except for CR and
  * LF which will be replaced with CRLF if needed.
@@ -19,6 +32,8 @@ import java.util.stream.Collectors;
  */
 public final class Skype {
   private static final Logger logger = Logger.getLogger("fr.delthas.skype");
+  private static final long GROUP_LOAD_TIMEOUT = 10000;
+  private static final long REFRESH_RETRY_DELAY = 10000;
   
   static {
     try {
@@ -31,20 +46,63 @@ public final class Skype {
   private final String username;
   private final String password;
   private final boolean microsoft;
-  private final Thread refreshThread;
+  private final Object refreshLock = new Object();
+  private ScheduledFuture<?> refreshTask;
+  private final SkypeMetrics metrics = new SkypeMetrics();
+  private ObjectName mBeanName;
+  private List<MessageRoute> messageListeners = new LinkedList<>();
+  // message listeners of a single conversation, by group or user
+  private final Map<Object, List<MessageRoute>> conversationMessageListeners = new ConcurrentHashMap<>();
+  private final EventPublisher<MessageEvent> userMessagePublisher = new EventPublisher<>(MessageEvent::getSender, EventPublisher.OverflowStrategy.DROP_OLDEST);
+  private final EventPublisher<MessageEvent> groupMessagePublisher = new EventPublisher<>(MessageEvent::getGroup, EventPublisher.OverflowStrategy.DROP_OLDEST);
+  private final EventPublisher<PresenceChange> presencePublisher = new EventPublisher<>(PresenceChange::getUser, EventPublisher.OverflowStrategy.LATEST_PER_KEY);
+  private final EventPublisher<GroupChange> groupChangePublisher = new EventPublisher<>(GroupChange::getGroup, EventPublisher.OverflowStrategy.DROP_OLDEST);
   private List<UserMessageListener> userMessageListeners = new LinkedList<>();
   private List<GroupMessageListener> groupMessageListeners = new LinkedList<>();
   private List<UserPresenceListener> userPresenceListeners = new LinkedList<>();
+  private List<UserPresenceBatchListener> userPresenceBatchListeners = new LinkedList<>();
   private List<GroupPropertiesListener> groupPropertiesListeners = new LinkedList<>();
   private ErrorListener errorListener;
-  private NotifConnector notifConnector;
+  private volatile NotifConnector notifConnector;
   private LiveConnector liveConnector;
   private WebConnector webConnector;
   private Map<String, Group> groups;
-  private Set<User> contacts;
+  private UserGroupIndex userGroups = new UserGroupIndex();
+  private ContactIndex contacts = new ContactIndex();
   private Map<String, User> users;
   private List<ContactRequest> contactRequests;
-  private boolean connected = false;
+  private PresenceBatcher presenceBatcher;
+  private long presenceBatchWindow = 1000;
+  private int presenceBatchMaxSize = 1000;
+  private int maxLoadedGroups = 0;
+  // access-ordered set of the loaded groups in lazy mode, or null if lazy group loading is disabled; guarded by itself
+  private LinkedHashMap<Group, Boolean> loadedGroups;
+  private int messageHistorySize = 0;
+  private long messageHistoryMaxChars;
+  private volatile MessageHistory messageHistory;
+  private long deduplicationWindow = 10 * 60 * 1000;
+  private volatile MessageDeduplicator deduplicator;
+  private int inboundQueueCapacity = 4096;
+  private InboundQueuePolicy inboundQueuePolicy = InboundQueuePolicy.BLOCK;
+  private boolean parallelDecoding = false;
+  private boolean decodeOrderPerConversation = false;
+  private int sendWindow = 64;
+  private long sendTimeout = 30000;
+  private double minSendRate = 1;
+  private double maxSendRate = 50;
+  private Set<Integer> throttleErrorCodes = Collections.singleton(800);
+  private volatile long asyncCallTimeout = 30000;
+  private volatile int batchParallelism = 8;
+  private volatile int batchMaxAttempts = 4;
+  private int maxReconnectAttempts = 0;
+  private long reconnectMinDelay = 1000;
+  private long reconnectMaxDelay = 60000;
+  private final Object reconnectLock = new Object();
+  private Thread reconnectThread;
+  private volatile boolean reconnecting = false;
+  // the connector whose session was lost, replaced by the reconnection thread
+  private volatile NotifConnector lostConnector;
+  private volatile boolean connected = false;
   private boolean connecting = false;
   private volatile long expires;
   private IOException exceptionDuringConnection;
@@ -61,38 +119,14 @@ public final class Skype {
     this.username = username;
     this.password = password;
     microsoft = username.contains("@");
-  
-    refreshThread = new Thread(() -> {
-      long expires = System.nanoTime() + (Skype.this.expires - System.nanoTime()) * 3 / 4;
-      while (!Thread.interrupted()) {
-        try {
-          if (System.nanoTime() >= expires) {
-            try {
-              logger.finer("Refreshing tokens");
-              if (microsoft) {
-                expires = liveConnector.refreshTokens();
-              }
-              expires = Long.min(expires, webConnector.refreshTokens(liveConnector.getSkypeToken()));
-              expires = Long.min(expires, notifConnector.refreshTokens(liveConnector.getLoginToken(), liveConnector.getLiveToken()));
-            } catch (IOException e) {
-              logger.log(Level.INFO, "Error while refreshing tokens", e);
-            }
-            expires = System.nanoTime() + (expires - System.nanoTime()) * 3 / 4;
-          }
-          Thread.sleep(10000);
-        } catch (InterruptedException e) {
-          return;
-        }
-      }
-    });
-    refreshThread.setName("Skype-Ping-Thread");
-    refreshThread.setDaemon(true);
   }
   
   /**
    * Enables or disables debug of the Skype library (globally). (By default logs are <b>disabled</b>.)
    * <p>
    * If enabled, debug information and logs will be written to a log file at the specified path. If the path is null, the debug will be disabled.
+   * <p>
+   * Logs are written to the file by a background thread, so that enabling debug doesn't slow down the receiving of messages.
    *
    * @param path The path at which to write debugging information, or null to disable logging.
    * @throws IOException may be thrown when adding a file handler to the logger
@@ -109,10 +143,23 @@ public final class Skype {
       }
       FileHandler fh = new FileHandler(path.toString(), false);
       fh.setFormatter(new SimpleFormatter());
-      logger.addHandler(fh);
+      logger.addHandler(new AsyncLogHandler(fh));
     }
   }
   
+  /**
+   * Enables or disables virtual threads for the internal threads of the library (globally). (By default virtual threads are <b>disabled</b>.)
+   * <p>
+   * Virtual threads need Java 21 or later. With virtual threads, a receiver thread blocked on its socket doesn't use a platform thread, which lets
+   * a JVM host many more Skype interfaces. Only the threads started after this call are affected.
+   *
+   * @param enabled true to use virtual threads, false to use platform threads.
+   * @return true if the setting was applied, false if virtual threads were requested but aren't supported by this JVM.
+   */
+  public static boolean setVirtualThreads(boolean enabled) {
+    return Threads.setVirtual(enabled);
+  }
+  
   /**
    * Calls {@code connect(Presence.CONNECTED)}.
    *
@@ -173,7 +220,9 @@ public final class Skype {
       throw new IOException("Error thrown during connection. Check your credentials?", exceptionDuringConnection);
     }
   
-    refreshThread.start();
+    presenceBatcher.releaseBarrier();
+  
+    scheduleRefresh(TimeUnit.NANOSECONDS.toMillis((expires - System.nanoTime()) * 3 / 4));
   }
   
   /**
@@ -190,7 +239,13 @@ public final class Skype {
   
     logger.fine("Disconnecting from Skype");
   
-    refreshThread.interrupt();
+    synchronized (refreshLock) {
+      if (refreshTask != null) {
+        refreshTask.cancel(false);
+        refreshTask = null;
+      }
+    }
+    stopReconnect();
     notifConnector.disconnect();
     for (Map.Entry<String, User> user : users.entrySet()) {
       user.getValue().setPresence(Presence.OFFLINE, false);
@@ -227,7 +282,32 @@ public final class Skype {
    */
   public List<User> getContacts() {
     ensureConnected();
-    return Collections.unmodifiableList(new ArrayList<>(contacts));
+    return contacts.getContacts();
+  }
+  
+  /**
+   * Returns the contacts of the account that currently have a specific presence, for example all online contacts.
+   * <p>
+   * Contacts are indexed by presence as their presence changes, so this takes time proportional to the number of contacts returned rather than to
+   * the total number of contacts.
+   *
+   * @param presence The presence of the contacts to return.
+   * @return The current list of contacts of the account with this presence (snapshot, won't be updated).
+   * @see #getContactCount(Presence)
+   */
+  public List<User> getContactsWithPresence(Presence presence) {
+    ensureConnected();
+    return contacts.getContacts(presence);
+  }
+  
+  /**
+   * @param presence The presence of the contacts to count.
+   * @return The current number of contacts of the account with this presence.
+   * @see #getContactsWithPresence(Presence)
+   */
+  public int getContactCount(Presence presence) {
+    ensureConnected();
+    return contacts.getCount(presence);
   }
   
   /**
@@ -244,13 +324,251 @@ public final class Skype {
     }
     ensureConnected();
     try {
-      logger.finer("Changing presence to " + presence);
+      logger.finer(() -> "Changing presence to " + presence);
       notifConnector.changePresence(presence);
     } catch (IOException e) {
       error(e);
     }
   }
   
+  /**
+   * Sets how presence changes are batched for {@link UserPresenceBatchListener}s. (By default, batches are delivered after 1 second or after 1000
+   * changes.)
+   * <p>
+   * The new values are used starting from the next connection.
+   *
+   * @param windowMillis The maximum time in milliseconds between the first change of a batch and its delivery.
+   * @param maxBatchSize The maximum number of changes in a batch, after which it is delivered immediately.
+   * @see UserPresenceBatchListener
+   */
+  public void setPresenceBatching(long windowMillis, int maxBatchSize) {
+    if (windowMillis < 0) {
+      throw new IllegalArgumentException("The batch window can't be negative");
+    }
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("The maximum batch size must be at least 1");
+    }
+    presenceBatchWindow = windowMillis;
+    presenceBatchMaxSize = maxBatchSize;
+  }
+  
+  /**
+   * Enables or disables lazy group loading. (By default, lazy group loading is disabled.)
+   * <p>
+   * By default, the members, roles and topic of all groups are fetched when connecting. With lazy group loading, groups start as stubs that only
+   * know their id, and are loaded when they are first accessed (which blocks until they are loaded), or in the background when an event is
+   * received for them. At most {@code maxLoadedGroups} groups are kept loaded: the least recently used groups are unloaded and will be loaded
+   * again on their next access. This is useful for accounts in many groups.
+   * <p>
+   * A group can't be loaded while a listener runs, as groups are loaded by the thread that calls the listeners: when a listener accesses a group
+   * that isn't loaded, or when a group isn't loaded within 10 seconds, the group getters log a warning and return the partial state known so far
+   * (possibly no members and no topic).
+   * <p>
+   * As the members of a group are only known once it has been loaded, {@link User#getGroups()} doesn't return the groups that haven't been loaded
+   * since the connection. The groups unloaded to save memory are still returned.
+   * <p>
+   * The new value is used starting from the next connection.
+   *
+   * @param maxLoadedGroups The maximum number of loaded groups, or 0 to disable lazy group loading.
+   */
+  public void setLazyGroupLoading(int maxLoadedGroups) {
+    if (maxLoadedGroups < 0) {
+      throw new IllegalArgumentException("The maximum number of loaded groups can't be negative");
+    }
+    this.maxLoadedGroups = maxLoadedGroups;
+  }
+  
+  /**
+   * Enables or disables the message history. (By default, the message history is disabled.)
+   * <p>
+   * If enabled, the most recent messages sent and received in each conversation are kept in memory, and can be read with
+   * {@link User#getRecentMessages(int)} and {@link Group#getRecentMessages(int)}. The total length of the kept messages is capped: when it is
+   * exceeded, the oldest messages of the conversations least recently written to are dropped first.
+   * <p>
+   * The new values are used starting from the next connection. The history is cleared when disconnecting.
+   *
+   * @param messagesPerConversation The maximum number of messages kept per conversation, or 0 to disable the message history.
+   * @param maxTotalChars           The maximum total number of characters of the messages kept in all conversations.
+   */
+  public void setMessageHistory(int messagesPerConversation, long maxTotalChars) {
+    if (messagesPerConversation < 0) {
+      throw new IllegalArgumentException("The number of messages per conversation can't be negative");
+    }
+    if (maxTotalChars < 0) {
+      throw new IllegalArgumentException("The maximum number of characters can't be negative");
+    }
+    messageHistorySize = messagesPerConversation;
+    messageHistoryMaxChars = maxTotalChars;
+  }
+  
+  /**
+   * Sets the time window during which received messages with the same id are considered duplicates and dropped before calling the listeners.
+   * (By default, duplicates are dropped within 10 minutes.)
+   * <p>
+   * Messages can be delivered twice by Skype, for example after a reconnection. The ids of the most recent messages of each conversation are
+   * remembered for the time window, within fixed memory bounds.
+   * <p>
+   * The new value is used starting from the next connection.
+   *
+   * @param windowMillis The time window in milliseconds, or 0 to disable de-duplication.
+   */
+  public void setMessageDeduplication(long windowMillis) {
+    if (windowMillis < 0) {
+      throw new IllegalArgumentException("The time window can't be negative");
+    }
+    deduplicationWindow = windowMillis;
+  }
+  
+  /**
+   * Sets the capacity of the inbound queue and what to do when it is full. (By default, the capacity is 4096 packets and the policy is
+   * {@link InboundQueuePolicy#BLOCK}.)
+   * <p>
+   * Packets are read from the server by a receiver thread and queued to a processor thread, which parses them and calls the listeners, so that
+   * slow listeners don't stop the server connection from being read. The depth of the queue and the time packets wait in it are available in the
+   * metrics.
+   * <p>
+   * The new values are used starting from the next connection.
+   *
+   * @param capacity The maximum number of packets waiting to be processed.
+   * @param policy   What to do when a packet is received while the queue is full.
+   */
+  public void setInboundQueue(int capacity, InboundQueuePolicy policy) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The capacity must be at least 1");
+    }
+    inboundQueueCapacity = capacity;
+    inboundQueuePolicy = Objects.requireNonNull(policy);
+  }
+  
+  /**
+   * Enables or disables the parallel decoding of received packets. (By default, parallel decoding is disabled.)
+   * <p>
+   * If enabled, the costly parsing of received packets (XML payloads, and the plain text of messages) is done on a pool of threads shared by all
+   * Skype interfaces, sized to the number of processors (and at least two). Packets are then processed and passed to the listeners one at a time, as usual, in an
+   * order that is either the order in which they were received, or only the order in which they were received in each conversation: in the
+   * latter case, a message of a conversation may be passed to the listeners before a message received earlier in another conversation. Packets
+   * that aren't messages or presence updates (for example, contact and group list updates) are always processed in the order they were received.
+   * <p>
+   * The new values are used starting from the next connection.
+   *
+   * @param enabled              Whether to decode packets in parallel.
+   * @param perConversationOrder Whether to only keep the order of the packets of each conversation, rather than the global order.
+   */
+  public void setParallelDecoding(boolean enabled, boolean perConversationOrder) {
+    parallelDecoding = enabled;
+    decodeOrderPerConversation = perConversationOrder;
+  }
+  
+  /**
+   * Enables or disables automatic reconnection. (By default, automatic reconnection is disabled.)
+   * <p>
+   * If enabled, when an error occurs while connected, the Skype interface isn't disconnected. Instead, the notification session is re-established
+   * in the background, retrying with an exponentially increasing, randomized delay. The current tokens are reused while they are valid, and all
+   * User, Group and ContactRequest objects and all listeners are kept. The error listener is only called, and the interface disconnected, if all
+   * attempts fail.
+   * <p>
+   * Messages sent and actions done while reconnecting are lost.
+   *
+   * @param maxAttempts    The maximum number of reconnection attempts after an error, or 0 to disable automatic reconnection.
+   * @param minDelayMillis The delay in milliseconds before the first attempt, which is doubled after each failed attempt.
+   * @param maxDelayMillis The maximum delay in milliseconds between two attempts.
+   */
+  public void setAutoReconnect(int maxAttempts, long minDelayMillis, long maxDelayMillis) {
+    if (maxAttempts < 0) {
+      throw new IllegalArgumentException("The maximum number of attempts can't be negative");
+    }
+    if (minDelayMillis < 0 || maxDelayMillis < minDelayMillis) {
+      throw new IllegalArgumentException("The delays must be positive, and the maximum delay must be greater than the minimum delay");
+    }
+    maxReconnectAttempts = maxAttempts;
+    reconnectMinDelay = minDelayMillis;
+    reconnectMaxDelay = maxDelayMillis;
+  }
+  
+  /**
+   * Sets the limits of the messages sent with {@link User#sendMessageAsync(String)} and {@link Group#sendMessageAsync(String)}. (By default, at
+   * most 64 messages can wait for their acknowledgment, for at most 30 seconds.) At most 1024 messages can wait for their acknowledgment.
+   * <p>
+   * When the maximum number of messages are waiting for their acknowledgment, sending another one blocks until one is acknowledged or times out.
+   * The time until messages are acknowledged is available in the metrics.
+   * <p>
+   * The new values are used starting from the next connection.
+   *
+   * @param maxPending    The maximum number of messages sent but not acknowledged yet.
+   * @param timeoutMillis The time in milliseconds after which a message that wasn't acknowledged fails, which is also the maximum time sending a
+   *                      message blocks while too many messages are waiting for their acknowledgment.
+   */
+  public void setSendWindow(int maxPending, long timeoutMillis) {
+    if (maxPending < 1 || maxPending > NotifConnector.OUTBOUND_LANE_CAPACITY) {
+      throw new IllegalArgumentException("The maximum number of pending messages must be between 1 and " + NotifConnector.OUTBOUND_LANE_CAPACITY);
+    }
+    if (timeoutMillis <= 0) {
+      throw new IllegalArgumentException("The timeout must be positive");
+    }
+    sendWindow = maxPending;
+    sendTimeout = timeoutMillis;
+  }
+  
+  /**
+   * Sets the limits of the adaptive rate at which messages are sent, and the server errors that mean messages are sent too fast. (By default,
+   * the rate is between 1 and 50 messages per second, and the throttling error code is 800.)
+   * <p>
+   * Messages are paced at a rate that starts at the maximum rate. Each throttling error halves the rate and pauses the conversation it occurred
+   * in, with an exponentially increasing delay, and the rejected message is sent again later (up to 5 times). Each acknowledged message increases
+   * the rate again, by about one message per second each second, so that the sustained rate settles near the limit of the server.
+   * <p>
+   * The new values are used starting from the next connection.
+   *
+   * @param minRate            The minimum rate in messages per second.
+   * @param maxRate            The maximum rate in messages per second.
+   * @param throttleErrorCodes The numeric error codes sent by the server when messages are sent too fast.
+   */
+  public void setAdaptiveSendRate(double minRate, double maxRate, int... throttleErrorCodes) {
+    if (!(minRate > 0) || maxRate < minRate) {
+      throw new IllegalArgumentException("The rates must be positive, and the maximum rate must be greater than the minimum rate");
+    }
+    Set<Integer> codes = new HashSet<>();
+    for (int code : throttleErrorCodes) {
+      codes.add(code);
+    }
+    minSendRate = minRate;
+    maxSendRate = maxRate;
+    this.throttleErrorCodes = Collections.unmodifiableSet(codes);
+  }
+  
+  /**
+   * Sets the time after which the asynchronous actions (such as {@link User#blockAsync()}) fail with a
+   * {@link java.util.concurrent.TimeoutException}. (By default, 30 seconds.)
+   * <p>
+   * The asynchronous actions of all Skype interfaces run on a shared pool of 16 threads. The new value is used starting from the next action.
+   *
+   * @param timeoutMillis The timeout in milliseconds, counted from the call of the action.
+   */
+  public void setAsyncCallTimeout(long timeoutMillis) {
+    if (timeoutMillis <= 0) {
+      throw new IllegalArgumentException("The timeout must be positive");
+    }
+    asyncCallTimeout = timeoutMillis;
+  }
+  
+  /**
+   * Sets how the batch actions (such as {@link #blockAll(Collection)}) are run. (By default, 8 concurrent requests and 4 attempts.)
+   * <p>
+   * The requests of a batch run concurrently on the shared pool of the asynchronous actions, each with the timeout set by
+   * {@link #setAsyncCallTimeout(long)}. A request rejected because of the load of the server (HTTP 429 or 5xx) is retried after an exponentially
+   * increasing delay, and a 429 also pauses the other requests of the batch for that delay. The new values are used starting from the next batch.
+   *
+   * @param parallelism The maximum number of concurrent requests of a batch.
+   * @param maxAttempts The maximum number of attempts of each request, including the first one.
+   */
+  public void setBatchParallelism(int parallelism, int maxAttempts) {
+    if (parallelism <= 0 || maxAttempts <= 0) {
+      throw new IllegalArgumentException("The parallelism and the number of attempts must be positive");
+    }
+    batchParallelism = parallelism;
+    batchMaxAttempts = maxAttempts;
+  }
+  
   /**
    * @return true if the Skype interface is connected.
    */
@@ -258,6 +576,89 @@ public final class Skype {
     return connected;
   }
   
+  /**
+   * @return The metrics of this Skype interface, which are kept across connections.
+   * @see SkypeMetrics
+   */
+  public SkypeMetrics getMetrics() {
+    return metrics;
+  }
+  
+  /**
+   * Registers the metrics of this Skype interface to the platform MBean server, as {@code fr.delthas.skype:type=Skype,name=<username>}.
+   * <p>
+   * Does nothing if the metrics are already registered.
+   *
+   * @return The name under which the metrics are registered.
+   * @throws JMException If the MBean could not be registered, for example if another Skype interface with the same username is already
+   *                     registered.
+   * @see #getMetrics()
+   */
+  public synchronized ObjectName registerMBean() throws JMException {
+    if (mBeanName == null) {
+      ObjectName name = new ObjectName("fr.delthas.skype:type=Skype,name=" + ObjectName.quote(username));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+      mBeanName = name;
+    }
+    return mBeanName;
+  }
+  
+  /**
+   * Unregisters the metrics of this Skype interface from the platform MBean server. Does nothing if they aren't registered.
+   *
+   * @throws JMException If the MBean could not be unregistered.
+   */
+  public synchronized void unregisterMBean() throws JMException {
+    if (mBeanName != null) {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(mBeanName);
+      mBeanName = null;
+    }
+  }
+  
+  /**
+   * Returns the publisher of the messages sent directly to the Skype account, which is the backpressure-aware equivalent of
+   * {@link UserMessageListener}. Its {@link EventPublisher.OverflowStrategy#LATEST_PER_KEY} key is the sender, and its default overflow strategy
+   * is {@link EventPublisher.OverflowStrategy#DROP_OLDEST}.
+   *
+   * @return The publisher of user messages.
+   */
+  public EventPublisher<MessageEvent> getUserMessagePublisher() {
+    return userMessagePublisher;
+  }
+  
+  /**
+   * Returns the publisher of the messages sent to the groups the Skype account is in, which is the backpressure-aware equivalent of
+   * {@link GroupMessageListener}. Its {@link EventPublisher.OverflowStrategy#LATEST_PER_KEY} key is the group, and its default overflow strategy
+   * is {@link EventPublisher.OverflowStrategy#DROP_OLDEST}.
+   *
+   * @return The publisher of group messages.
+   */
+  public EventPublisher<MessageEvent> getGroupMessagePublisher() {
+    return groupMessagePublisher;
+  }
+  
+  /**
+   * Returns the publisher of the presence changes of users, which is the backpressure-aware equivalent of {@link UserPresenceListener}. Its
+   * {@link EventPublisher.OverflowStrategy#LATEST_PER_KEY} key is the user, which is also its default overflow strategy: a slow subscriber only
+   * receives the latest buffered change of each user.
+   *
+   * @return The publisher of presence changes.
+   */
+  public EventPublisher<PresenceChange> getPresencePublisher() {
+    return presencePublisher;
+  }
+  
+  /**
+   * Returns the publisher of the changes of the properties of groups, which is the backpressure-aware equivalent of
+   * {@link GroupPropertiesListener}. Its {@link EventPublisher.OverflowStrategy#LATEST_PER_KEY} key is the group, and its default overflow
+   * strategy is {@link EventPublisher.OverflowStrategy#DROP_OLDEST}.
+   *
+   * @return The publisher of group changes.
+   */
+  public EventPublisher<GroupChange> getGroupChangePublisher() {
+    return groupChangePublisher;
+  }
+  
   // --- Package-private methods --- //
   
   User getUser(String username) {
@@ -270,18 +671,175 @@ public final class Skype {
     return group;
   }
   
+  int getInboundQueueCapacity() {
+    return inboundQueueCapacity;
+  }
+  
+  InboundQueuePolicy getInboundQueuePolicy() {
+    return inboundQueuePolicy;
+  }
+  
+  int getSendWindow() {
+    return sendWindow;
+  }
+  
+  long getSendTimeout() {
+    return sendTimeout;
+  }
+  
+  double getMinSendRate() {
+    return minSendRate;
+  }
+  
+  double getMaxSendRate() {
+    return maxSendRate;
+  }
+  
+  Set<Integer> getThrottleErrorCodes() {
+    return throttleErrorCodes;
+  }
+  
+  boolean isParallelDecoding() {
+    return parallelDecoding;
+  }
+  
+  boolean isDecodeOrderPerConversation() {
+    return decodeOrderPerConversation;
+  }
+  
+  boolean isPlaintextNeeded() {
+    return messageHistory != null || !userMessageListeners.isEmpty() || !groupMessageListeners.isEmpty() || logger.isLoggable(Level.FINER);
+  }
+  
+  boolean isLazyGroupLoading() {
+    return loadedGroups != null;
+  }
+  
+  void groupAccessed(Group group, boolean wait) {
+    if (loadedGroups == null) {
+      return;
+    }
+    if (group.isLoaded()) {
+      synchronized (loadedGroups) {
+        // refresh the position of the group in the access order
+        loadedGroups.get(group);
+      }
+      return;
+    }
+    if (group.requestLoad()) {
+      logger.finest(() -> "Loading group " + group.getId());
+      try {
+        notifConnector.requestThreads(Collections.singletonList(group.getId()));
+      } catch (IOException e) {
+        group.loadFailed();
+        error(e);
+        return;
+      }
+    }
+    if (!wait) {
+      return;
+    }
+    // never block the processor thread, as it is the one that will load the group
+    if (notifConnector.isProcessorThread()) {
+      logger.warning(() -> "Group " + group.getId() + " accessed from a listener before it was loaded, returning its partial state");
+    } else if (!group.awaitLoaded(GROUP_LOAD_TIMEOUT)) {
+      logger.warning(() -> "Group " + group.getId() + " not loaded after " + GROUP_LOAD_TIMEOUT + "ms, returning its partial state");
+    }
+  }
+  
+  void groupLoaded(Group group) {
+    if (loadedGroups == null) {
+      return;
+    }
+    List<Group> evicted = new ArrayList<>();
+    synchronized (loadedGroups) {
+      loadedGroups.put(group, Boolean.TRUE);
+      Iterator<Group> it = loadedGroups.keySet().iterator();
+      while (loadedGroups.size() > maxLoadedGroups) {
+        evicted.add(it.next());
+        it.remove();
+      }
+    }
+    // unload outside of the lock to avoid lock ordering issues with the group locks
+    for (Group evictedGroup : evicted) {
+      logger.finest(() -> "Unloading group " + evictedGroup.getId());
+      evictedGroup.unload();
+    }
+  }
+  
+  List<ChatMessage> getRecentMessages(Object conversation, int n) {
+    MessageHistory history = messageHistory;
+    if (history == null) {
+      return Collections.emptyList();
+    }
+    return history.get(conversation, n);
+  }
+  
+  boolean isDuplicateMessage(Object conversation, String messageId) {
+    MessageDeduplicator deduplicator = this.deduplicator;
+    return deduplicator != null && deduplicator.isDuplicate(conversation, messageId, System.nanoTime());
+  }
+  
   void addContact(String username) {
-    logger.finest("Adding contact " + username);
+    logger.finest(() -> "Adding contact " + username);
     contacts.add(getUser(username));
   }
   
+  List<Group> getGroups(User user) {
+    ensureConnected();
+    return userGroups.get(user);
+  }
+  
+  void userJoinedGroup(User user, Group group) {
+    userGroups.joined(user, group);
+  }
+  
+  void userLeftGroup(User user, Group group) {
+    userGroups.left(user, group);
+  }
+  
+  void updatePresenceIndex(User user, Presence oldPresence, Presence presence) {
+    contacts.presenceChanged(user, oldPresence, presence);
+  }
+  
   void error(IOException e) {
+    error(null, e);
+  }
+  
+  /**
+   * Reports an error.
+   *
+   * @param source The connector that caused the error, or null if it isn't caused by a connector.
+   */
+  void error(NotifConnector source, IOException e) {
+    if (reconnecting && source != null && (source == lostConnector || source != notifConnector || source.isConnectionError(e))) {
+      // errors of the lost session, of a failed attempt, or that make the current attempt fail, which are handled by the reconnection thread
+      logger.log(Level.FINE, "Error handled by the reconnection", e);
+      return;
+    }
     logger.log(Level.SEVERE, "Error thrown", e);
+    if (reconnecting) {
+      // unrelated to the lost session: report it, but let the reconnection thread handle the session
+      report(e);
+      return;
+    }
+    if (!connecting && connected && maxReconnectAttempts > 0) {
+      startReconnect(e);
+      return;
+    }
+    fail(e);
+  }
+  
+  private void report(IOException e) {
     if (errorListener != null) {
       errorListener.error(e);
     } else {
       logger.severe("No error listener set!!!");
     }
+  }
+  
+  private void fail(IOException e) {
+    report(e);
     if (connecting) {
       exceptionDuringConnection = e;
     } else {
@@ -289,6 +847,120 @@ public final class Skype {
     }
   }
   
+  private void scheduleRefresh(long delayMillis) {
+    synchronized (refreshLock) {
+      if (!connected) {
+        return;
+      }
+      // jitter the refresh time so that many interfaces connected at the same time don't refresh at the same time
+      // the refresh does blocking HTTP requests: only its trigger runs on the shared scheduler
+      refreshTask = Scheduler.schedule(() -> Threads.newThread(this::refreshTokens, "Skype-Refresh-Thread", true).start(),
+              Scheduler.jitter(Long.max(delayMillis, 0), 0.1), TimeUnit.MILLISECONDS);
+    }
+  }
+  
+  private void refreshTokens() {
+    long expires = Long.MAX_VALUE;
+    try {
+      logger.finer("Refreshing tokens");
+      if (microsoft) {
+        expires = liveConnector.refreshTokens();
+      }
+      expires = Long.min(expires, webConnector.refreshTokens(liveConnector.getSkypeToken()));
+      expires = Long.min(expires, notifConnector.refreshTokens(liveConnector.getLoginToken(), liveConnector.getLiveToken()));
+      metrics.tokenRefresh(true);
+    } catch (IOException e) {
+      logger.log(Level.INFO, "Error while refreshing tokens", e);
+      metrics.tokenRefresh(false);
+      scheduleRefresh(REFRESH_RETRY_DELAY);
+      return;
+    }
+    this.expires = expires;
+    scheduleRefresh(TimeUnit.NANOSECONDS.toMillis((expires - System.nanoTime()) * 3 / 4));
+  }
+  
+  private void startReconnect(IOException cause) {
+    Thread thread;
+    synchronized (reconnectLock) {
+      if (reconnecting || !connected) {
+        return;
+      }
+      reconnecting = true;
+      lostConnector = notifConnector;
+      logger.warning("Notification session lost, reconnecting");
+      thread = Threads.newThread(() -> reconnect(cause), "Skype-Reconnect-Thread", true);
+      reconnectThread = thread;
+    }
+    notifConnector.disconnect();
+    thread.start();
+  }
+  
+  private void reconnect(IOException cause) {
+    IOException lastError = cause;
+    long delay = reconnectMinDelay;
+    for (int attempt = 1; attempt <= maxReconnectAttempts; attempt++) {
+      try {
+        // randomize the delay so that many clients don't reconnect at the same time
+        Thread.sleep(ThreadLocalRandom.current().nextLong(delay / 2, delay + 1));
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (!connected) {
+        return;
+      }
+      delay = Long.min(delay * 2, reconnectMaxDelay);
+      int attemptNumber = attempt;
+      logger.info(() -> "Reconnecting, attempt " + attemptNumber + " of " + maxReconnectAttempts);
+      NotifConnector connector = new NotifConnector(this, username, password);
+      try {
+        long expires = this.expires;
+        if (attempt > 1 || System.nanoTime() >= expires) {
+          // the tokens may have expired or been revoked, get new ones
+          expires = Long.MAX_VALUE;
+          if (microsoft) {
+            expires = liveConnector.refreshTokens();
+          }
+          expires = Long.min(expires, webConnector.refreshTokens(liveConnector.getSkypeToken()));
+        }
+        notifConnector = connector;
+        expires = Long.min(expires, connector.connect(liveConnector.getLoginToken(), liveConnector.getLiveToken()));
+        this.expires = expires;
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Error while reconnecting", e);
+        connector.disconnect();
+        lastError = e;
+        continue;
+      } catch (InterruptedException e) {
+        connector.disconnect();
+        return;
+      }
+      reconnecting = false;
+      metrics.reconnected();
+      logger.info("Reconnected");
+      return;
+    }
+    logger.severe("Giving up reconnecting");
+    reconnecting = false;
+    fail(lastError);
+  }
+  
+  private void stopReconnect() {
+    Thread thread;
+    synchronized (reconnectLock) {
+      thread = reconnectThread;
+      reconnectThread = null;
+    }
+    if (thread != null && thread != Thread.currentThread()) {
+      thread.interrupt();
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    reconnecting = false;
+  }
+  
   private void ensureConnected() throws IllegalStateException {
     if (!connected) {
       throw new IllegalStateException("Not connected to Skype!");
@@ -301,19 +973,32 @@ public final class Skype {
     notifConnector = new NotifConnector(this, username, password);
     webConnector = new WebConnector(this, username, password);
     groups = new HashMap<>();
-    contacts = new HashSet<>();
+    userGroups = new UserGroupIndex();
+    contacts = new ContactIndex();
     users = new HashMap<>();
-    contactRequests = new LinkedList<>();
+    loadedGroups = maxLoadedGroups > 0 ? new LinkedHashMap<>(16, 0.75f, true) : null;
+    deduplicator = deduplicationWindow > 0 ? new MessageDeduplicator(deduplicationWindow) : null;
+    messageHistory = messageHistorySize > 0 ? new MessageHistory(messageHistorySize, messageHistoryMaxChars) : null;
+    // modified concurrently by the asynchronous and batch actions
+    contactRequests = new CopyOnWriteArrayList<>();
+    if (presenceBatcher != null) {
+      presenceBatcher.close();
+    }
+    presenceBatcher = new PresenceBatcher(this, presenceBatchWindow, presenceBatchMaxSize);
     exceptionDuringConnection = null;
   }
   
   // --- Package-private methods that simply call the web connector --- //
   
+  // an HTTP error status only means that this action was rejected, the connection is still usable
+  
   void block(User user) {
     ensureConnected();
     try {
-      logger.finer("Blocking user: " + user);
+      logger.finer(() -> "Blocking user: " + user);
       webConnector.block(user);
+    } catch (HttpStatusException e) {
+      logger.log(Level.WARNING, "Couldn't block user: " + user, e);
     } catch (IOException e) {
       error(e);
     }
@@ -322,8 +1007,10 @@ public final class Skype {
   void unblock(User user) {
     ensureConnected();
     try {
-      logger.finer("Unblocking user: " + user);
+      logger.finer(() -> "Unblocking user: " + user);
       webConnector.unblock(user);
+    } catch (HttpStatusException e) {
+      logger.log(Level.WARNING, "Couldn't unblock user: " + user, e);
     } catch (IOException e) {
       error(e);
     }
@@ -332,8 +1019,10 @@ public final class Skype {
   void sendContactRequest(User user, String greeting) {
     ensureConnected();
     try {
-      logger.finer("Sending user: " + user + " a contact request: greeting:" + greeting);
+      logger.finer(() -> "Sending user: " + user + " a contact request: greeting:" + greeting);
       webConnector.sendContactRequest(user, greeting);
+    } catch (HttpStatusException e) {
+      logger.log(Level.WARNING, "Couldn't send contact request to user: " + user, e);
     } catch (IOException e) {
       error(e);
     }
@@ -342,9 +1031,11 @@ public final class Skype {
   void removeFromContacts(User user) {
     ensureConnected();
     try {
-      logger.finer("Removing user: " + user + " from contacts");
+      logger.finer(() -> "Removing user: " + user + " from contacts");
       webConnector.removeFromContacts(user);
       contacts.remove(user);
+    } catch (HttpStatusException e) {
+      logger.log(Level.WARNING, "Couldn't remove user: " + user + " from contacts", e);
     } catch (IOException e) {
       error(e);
     }
@@ -354,6 +1045,9 @@ public final class Skype {
     ensureConnected();
     try {
       return webConnector.getAvatar(user);
+    } catch (HttpStatusException e) {
+      logger.log(Level.WARNING, "Couldn't get avatar of user: " + user, e);
+      return null;
     } catch (IOException e) {
       error(e);
       return null;
@@ -363,7 +1057,7 @@ public final class Skype {
   void updateUser(User user) {
     if (!users.containsKey(user.getUsername())) {
       try {
-        logger.finest("Updating user info: " + user);
+        logger.finest(() -> "Updating user info: " + user);
         webConnector.updateUser(user);
       } catch (IOException e) {
         error(e);
@@ -371,26 +1065,106 @@ public final class Skype {
     }
   }
   
-  void acceptContactRequest(ContactRequest contactRequest) {
+  // returns whether the request was processed, so that a rejected request can be processed again
+  boolean acceptContactRequest(ContactRequest contactRequest) {
     ensureConnected();
     try {
-      logger.finer("Accepting contact request: " + contactRequest);
+      logger.finer(() -> "Accepting contact request: " + contactRequest);
       webConnector.acceptContactRequest(contactRequest);
       contactRequests.remove(contactRequest);
+      return true;
+    } catch (HttpStatusException e) {
+      logger.log(Level.WARNING, "Couldn't accept contact request: " + contactRequest, e);
     } catch (IOException e) {
       error(e);
     }
+    return false;
   }
   
-  void declineContactRequest(ContactRequest contactRequest) {
+  boolean declineContactRequest(ContactRequest contactRequest) {
     ensureConnected();
     try {
-      logger.finer("Declining contact request: " + contactRequest);
+      logger.finer(() -> "Declining contact request: " + contactRequest);
       webConnector.declineContactRequest(contactRequest);
       contactRequests.remove(contactRequest);
+      return true;
+    } catch (HttpStatusException e) {
+      logger.log(Level.WARNING, "Couldn't decline contact request: " + contactRequest, e);
     } catch (IOException e) {
       error(e);
     }
+    return false;
+  }
+  
+  // --- Asynchronous variants, run on the I/O pool: their errors only fail their future --- //
+  
+  CompletableFuture<Void> blockAsync(User user) {
+    ensureConnected();
+    WebConnector webConnector = this.webConnector;
+    logger.finer(() -> "Blocking user: " + user);
+    return IoExecutor.submit(() -> {
+      webConnector.block(user);
+      return null;
+    }, asyncCallTimeout);
+  }
+  
+  CompletableFuture<Void> unblockAsync(User user) {
+    ensureConnected();
+    WebConnector webConnector = this.webConnector;
+    logger.finer(() -> "Unblocking user: " + user);
+    return IoExecutor.submit(() -> {
+      webConnector.unblock(user);
+      return null;
+    }, asyncCallTimeout);
+  }
+  
+  CompletableFuture<Void> sendContactRequestAsync(User user, String greeting) {
+    ensureConnected();
+    WebConnector webConnector = this.webConnector;
+    logger.finer(() -> "Sending user: " + user + " a contact request: greeting:" + greeting);
+    return IoExecutor.submit(() -> {
+      webConnector.sendContactRequest(user, greeting);
+      return null;
+    }, asyncCallTimeout);
+  }
+  
+  CompletableFuture<Void> removeFromContactsAsync(User user) {
+    ensureConnected();
+    WebConnector webConnector = this.webConnector;
+    logger.finer(() -> "Removing user: " + user + " from contacts");
+    return IoExecutor.submit(() -> {
+      webConnector.removeFromContacts(user);
+      contacts.remove(user);
+      return null;
+    }, asyncCallTimeout);
+  }
+  
+  CompletableFuture<byte[]> getAvatarAsync(User user) {
+    ensureConnected();
+    WebConnector webConnector = this.webConnector;
+    return IoExecutor.submit(() -> webConnector.getAvatar(user), asyncCallTimeout);
+  }
+  
+  CompletableFuture<Void> acceptContactRequestAsync(ContactRequest contactRequest) {
+    ensureConnected();
+    WebConnector webConnector = this.webConnector;
+    logger.finer(() -> "Accepting contact request: " + contactRequest);
+    return IoExecutor.submit(() -> {
+      webConnector.acceptContactRequest(contactRequest);
+      contactRequests.remove(contactRequest);
+      return null;
+    }, asyncCallTimeout);
+  }
+  
+  CompletableFuture<Void> declineContactRequestAsync(ContactRequest contactRequest) {
+    ensureConnected();
+    WebConnector webConnector = this.webConnector;
+    logger.finer(() -> "Declining contact request: " + contactRequest);
+    return IoExecutor.submit(() -> {
+      webConnector.declineContactRequest(contactRequest);
+      contactRequests.remove(contactRequest);
+      return null;
+    }, asyncCallTimeout);
   }
   
   // --- Package-private methods that simply call the notification connector --- //
@@ -398,8 +1172,9 @@ public final class Skype {
   void sendUserMessage(User user, String message) {
     ensureConnected();
     try {
-      logger.finer("Sending user: " + user + " message: " + message);
+      logger.finer(() -> "Sending user: " + user + " message: " + message);
       notifConnector.sendUserMessage(user, message);
+      addToHistory(user, getUser(username), message);
     } catch (IOException e) {
       error(e);
     }
@@ -408,17 +1183,196 @@ public final class Skype {
   void sendGroupMessage(Group group, String message) {
     ensureConnected();
     try {
-      logger.finer("Sending group: " + group + " message: " + message);
+      logger.finer(() -> "Sending group: " + group + " message: " + message);
       notifConnector.sendGroupMessage(group, message);
+      addToHistory(group, getUser(username), message);
     } catch (IOException e) {
       error(e);
     }
   }
   
+  CompletableFuture<Void> sendUserMessageAsync(User user, String message) {
+    ensureConnected();
+    CompletableFuture<Void> future;
+    try {
+      logger.finer(() -> "Sending user: " + user + " message: " + message);
+      future = notifConnector.sendUserMessageAsync(user, message);
+    } catch (IOException e) {
+      error(e);
+      return failedFuture(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return failedFuture(e);
+    }
+    return future.thenRun(() -> addToHistory(user, getUser(username), message));
+  }
+  
+  CompletableFuture<Void> sendGroupMessageAsync(Group group, String message) {
+    ensureConnected();
+    CompletableFuture<Void> future;
+    try {
+      logger.finer(() -> "Sending group: " + group + " message: " + message);
+      future = notifConnector.sendGroupMessageAsync(group, message);
+    } catch (IOException e) {
+      error(e);
+      return failedFuture(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return failedFuture(e);
+    }
+    return future.thenRun(() -> addToHistory(group, getUser(username), message));
+  }
+  
+  /**
+   * Sends the same message to many users and groups, and waits until the server acknowledges or rejects each message.
+   * <p>
+   * The message is sanitized and formatted once, and the messages are sent in the background with a lower priority than other packets, paced by
+   * the adaptive send rate. This method blocks while too many messages are waiting for their acknowledgment. If the connection is lost, or if
+   * waiting for the acknowledgments times out, the messages not sent yet fail immediately.
+   *
+   * @param message    The message to send.
+   * @param recipients The users and groups to send the message to.
+   * @param <T>        The type of the recipients.
+   * @return The recipients the message was sent to, and the error for each recipient it couldn't be sent to.
+   * @see #setSendWindow(int, long)
+   * @see #setAdaptiveSendRate(double, double, int...)
+   */
+  public <T> BatchResult<T> broadcastMessage(String message, Collection<? extends T> recipients) {
+    ensureConnected();
+    List<T> recipientList = new ArrayList<>(recipients);
+    logger.finer(() -> "Broadcasting message: " + message + " to " + recipientList.size() + " recipients");
+    List<CompletableFuture<Void>> futures;
+    try {
+      futures = notifConnector.broadcastMessage(recipientList, message);
+    } catch (IOException e) {
+      error(e);
+      futures = Collections.nCopies(recipientList.size(), failedFuture(e));
+    }
+    User self = getUser(username);
+    List<T> succeeded = new ArrayList<>();
+    Map<T, Throwable> failed = new LinkedHashMap<>();
+    for (int i = 0; i < recipientList.size(); i++) {
+      T recipient = recipientList.get(i);
+      try {
+        futures.get(i).join();
+        addToHistory(recipient, self, message);
+        succeeded.add(recipient);
+      } catch (CompletionException e) {
+        failed.put(recipient, e.getCause());
+      }
+    }
+    return new BatchResult<>(succeeded, failed);
+  }
+  
+  /**
+   * Blocks many users at once (without reporting the accounts), blocking until all requests are done.
+   * <p>
+   * Unlike {@link User#block()}, the requests run concurrently, and an error only fails the user it occurred for.
+   *
+   * @param users The users to block.
+   * @return The users that were blocked, and the error for each user that couldn't be blocked.
+   * @see #setBatchParallelism(int, int)
+   */
+  public BatchResult<User> blockAll(Collection<? extends User> users) {
+    ensureConnected();
+    logger.finer(() -> "Blocking " + users.size() + " users");
+    return runBatch(users, webConnector::block);
+  }
+  
+  /**
+   * Unblocks many users at once, blocking until all requests are done.
+   * <p>
+   * Unlike {@link User#unblock()}, the requests run concurrently, and an error only fails the user it occurred for.
+   *
+   * @param users The users to unblock.
+   * @return The users that were unblocked, and the error for each user that couldn't be unblocked.
+   * @see #setBatchParallelism(int, int)
+   */
+  public BatchResult<User> unblockAll(Collection<? extends User> users) {
+    ensureConnected();
+    logger.finer(() -> "Unblocking " + users.size() + " users");
+    return runBatch(users, webConnector::unblock);
+  }
+  
+  /**
+   * Removes many users from the list of contacts of the Skype account at once, blocking until all requests are done.
+   * <p>
+   * Unlike {@link User#removeFromContacts()}, the requests run concurrently, and an error only fails the user it occurred for.
+   *
+   * @param users The users to remove from the contacts.
+   * @return The users that were removed, and the error for each user that couldn't be removed.
+   * @see #setBatchParallelism(int, int)
+   */
+  public BatchResult<User> removeAllFromContacts(Collection<? extends User> users) {
+    ensureConnected();
+    WebConnector webConnector = this.webConnector;
+    logger.finer(() -> "Removing " + users.size() + " users from contacts");
+    return runBatch(users, user -> {
+      webConnector.removeFromContacts(user);
+      contacts.remove(user);
+    });
+  }
+  
+  /**
+   * Accepts many contact requests at once, blocking until all requests are done. Requests already accepted or declined are ignored.
+   * <p>
+   * Unlike {@link ContactRequest#accept()}, the requests run concurrently, and an error only fails the request it occurred for.
+   *
+   * @param contactRequests The contact requests to accept.
+   * @return The contact requests that were accepted, and the error for each request that couldn't be accepted.
+   * @see #setBatchParallelism(int, int)
+   */
+  public BatchResult<ContactRequest> acceptAll(Collection<? extends ContactRequest> contactRequests) {
+    ensureConnected();
+    WebConnector webConnector = this.webConnector;
+    logger.finer(() -> "Accepting " + contactRequests.size() + " contact requests");
+    return runBatch(contactRequests, contactRequest -> {
+      if (contactRequest.isProcessed()) {
+        return;
+      }
+      webConnector.acceptContactRequest(contactRequest);
+      this.contactRequests.remove(contactRequest);
+      contactRequest.setProcessed();
+    });
+  }
+  
+  /**
+   * Declines many contact requests at once, blocking until all requests are done. Requests already accepted or declined are ignored.
+   * <p>
+   * Unlike {@link ContactRequest#decline()}, the requests run concurrently, and an error only fails the request it occurred for.
+   *
+   * @param contactRequests The contact requests to decline.
+   * @return The contact requests that were declined, and the error for each request that couldn't be declined.
+   * @see #setBatchParallelism(int, int)
+   */
+  public BatchResult<ContactRequest> declineAll(Collection<? extends ContactRequest> contactRequests) {
+    ensureConnected();
+    WebConnector webConnector = this.webConnector;
+    logger.finer(() -> "Declining " + contactRequests.size() + " contact requests");
+    return runBatch(contactRequests, contactRequest -> {
+      if (contactRequest.isProcessed()) {
+        return;
+      }
+      webConnector.declineContactRequest(contactRequest);
+      this.contactRequests.remove(contactRequest);
+      contactRequest.setProcessed();
+    });
+  }
+  
+  private <T> BatchResult<T> runBatch(Collection<? extends T> items, BatchExecutor.Action<T> action) {
+    return new BatchExecutor<T>(new ArrayList<>(items), action, batchParallelism, batchMaxAttempts, asyncCallTimeout).run();
+  }
+  
+  private static <T> CompletableFuture<T> failedFuture(Throwable throwable) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    future.completeExceptionally(throwable);
+    return future;
+  }
+  
   void addUserToGroup(User user, Role role, Group group) {
     ensureConnected();
     try {
-      logger.finer("Adding user: " + user + " to group: " + group + " with role: " + role);
+      logger.finer(() -> "Adding user: " + user + " to group: " + group + " with role: " + role);
       notifConnector.addUserToGroup(user, role, group);
     } catch (IOException e) {
       error(e);
@@ -428,7 +1382,7 @@ public final class Skype {
   void removeUserFromGroup(User user, Group group) {
     ensureConnected();
     try {
-      logger.finer("Removing user: " + user + " from group: " + group);
+      logger.finer(() -> "Removing user: " + user + " from group: " + group);
       notifConnector.removeUserFromGroup(user, group);
     } catch (IOException e) {
       error(e);
@@ -438,7 +1392,7 @@ public final class Skype {
   void changeUserRole(User user, Role role, Group group) {
     ensureConnected();
     try {
-      logger.finer("Changing user: " + user + " from group: " + group + " role to: " + role);
+      logger.finer(() -> "Changing user: " + user + " from group: " + group + " role to: " + role);
       notifConnector.changeUserRole(user, role, group);
     } catch (IOException e) {
       error(e);
@@ -448,7 +1402,7 @@ public final class Skype {
   void changeGroupTopic(Group group, String topic) {
     ensureConnected();
     try {
-      logger.finer("Setting group: " + group + " topic to: " + topic);
+      logger.finer(() -> "Setting group: " + group + " topic to: " + topic);
       notifConnector.changeGroupTopic(group, topic);
     } catch (IOException e) {
       error(e);
@@ -457,59 +1411,202 @@ public final class Skype {
   
   // --- Listeners call methods --- //
   
-  void userMessageReceived(User sender, String message) {
+  // the plaintext of the message is only computed if it is logged, kept in the history, or passed to a listener
+  
+  void userMessageReceived(MessageEvent message) {
+    User sender = message.getSender();
     updateUser(sender);
-    logger.finer("Received message: " + message + " from user: " + sender);
+    logger.finer(() -> "Received message: " + message.getMessage() + " from user: " + sender);
+    if (messageHistory != null) {
+      addToHistory(sender, sender, message.getMessage());
+    }
+    long start = System.nanoTime();
     for (UserMessageListener listener : userMessageListeners) {
-      listener.messageReceived(sender, message);
+      Object event = Tracing.beginListenerCall();
+      listener.messageReceived(sender, message.getMessage());
+      Tracing.endListenerCall(event, "userMessage", listener);
     }
+    metrics.listenerCalled("userMessage", System.nanoTime() - start);
+    messageReceived(message);
+    userMessagePublisher.publish(message);
   }
   
-  void groupMessageReceived(Group group, User sender, String message) {
-    logger.finer("Received group message: " + message + " from user: " + sender + " in group: " + group);
+  void groupMessageReceived(MessageEvent message) {
+    Group group = message.getGroup();
+    User sender = message.getSender();
+    logger.finer(() -> "Received group message: " + message.getMessage() + " from user: " + sender + " in group: " + group);
+    if (messageHistory != null) {
+      addToHistory(group, sender, message.getMessage());
+    }
+    long start = System.nanoTime();
     for (GroupMessageListener listener : groupMessageListeners) {
-      listener.messageReceived(group, sender, message);
+      Object event = Tracing.beginListenerCall();
+      listener.messageReceived(group, sender, message.getMessage());
+      Tracing.endListenerCall(event, "groupMessage", listener);
+    }
+    metrics.listenerCalled("groupMessage", System.nanoTime() - start);
+    messageReceived(message);
+    groupMessagePublisher.publish(message);
+  }
+  
+  private void messageReceived(MessageEvent message) {
+    long start = System.nanoTime();
+    dispatch(messageListeners, message);
+    List<MessageRoute> routes = conversationMessageListeners.get(message.getGroup() != null ? message.getGroup() : message.getSender());
+    if (routes != null) {
+      dispatch(routes, message);
+    }
+    metrics.listenerCalled("message", System.nanoTime() - start);
+  }
+  
+  private static void dispatch(List<MessageRoute> routes, MessageEvent message) {
+    for (MessageRoute route : routes) {
+      if (route.accepts(message)) {
+        Object event = Tracing.beginListenerCall();
+        route.listener.messageReceived(message);
+        Tracing.endListenerCall(event, "message", route.listener);
+      }
+    }
+  }
+  
+  void addConversationMessageListener(Object conversation, MessageListener messageListener, String... messageTypes) {
+    conversationMessageListeners.computeIfAbsent(conversation, c -> new CopyOnWriteArrayList<>()).add(new MessageRoute(messageListener, messageTypes));
+  }
+  
+  void removeConversationMessageListener(Object conversation, MessageListener messageListener) {
+    conversationMessageListeners.computeIfPresent(conversation, (c, routes) -> {
+      routes.removeIf(route -> route.listener == messageListener);
+      return routes.isEmpty() ? null : routes;
+    });
+  }
+  
+  private void addToHistory(Object conversation, User sender, String message) {
+    MessageHistory history = messageHistory;
+    if (history != null) {
+      history.add(conversation, sender, message, System.currentTimeMillis());
     }
   }
   
   void userPresenceChanged(User user, Presence oldPresence, Presence presence) {
-    logger.finer("User: " + user + " changed presence from: " + oldPresence + " to: " + presence);
+    logger.finer(() -> "User: " + user + " changed presence from: " + oldPresence + " to: " + presence);
+    long start = System.nanoTime();
     for (UserPresenceListener listener : userPresenceListeners) {
+      Object event = Tracing.beginListenerCall();
       listener.presenceChanged(user, oldPresence, presence);
+      Tracing.endListenerCall(event, "userPresence", listener);
+    }
+    metrics.listenerCalled("userPresence", System.nanoTime() - start);
+    if (!userPresenceBatchListeners.isEmpty()) {
+      presenceBatcher.presenceChanged(user, oldPresence, presence);
+    }
+    if (presencePublisher.hasSubscribers()) {
+      presencePublisher.publish(new PresenceChange(user, oldPresence, presence));
+    }
+  }
+  
+  void userPresencesChanged(List<PresenceChange> changes) {
+    logger.finer(() -> "Batch of " + changes.size() + " user presence changes");
+    long start = System.nanoTime();
+    for (UserPresenceBatchListener listener : userPresenceBatchListeners) {
+      Object event = Tracing.beginListenerCall();
+      listener.presencesChanged(changes);
+      Tracing.endListenerCall(event, "userPresenceBatch", listener);
+    }
+    metrics.listenerCalled("userPresenceBatch", System.nanoTime() - start);
+  }
+  
+  void userPresencesInitialized(List<PresenceChange> presences) {
+    logger.finer(() -> "Initial batch of " + presences.size() + " user presences");
+    long start = System.nanoTime();
+    for (UserPresenceBatchListener listener : userPresenceBatchListeners) {
+      Object event = Tracing.beginListenerCall();
+      listener.initialPresencesReceived(presences);
+      Tracing.endListenerCall(event, "userPresenceBatch", listener);
     }
+    metrics.listenerCalled("userPresenceBatch", System.nanoTime() - start);
   }
   
   void usersAddedToGroup(List<User> users, Group group) {
-    logger.finer("Users: " + users.stream().map(User::getUsername).collect(Collectors.joining(", ")) + " added to group: " + group);
+    logger.finer(() -> "Users: " + users.stream().map(User::getUsername).collect(Collectors.joining(", ")) + " added to group: " + group);
+    long start = System.nanoTime();
     for (GroupPropertiesListener listener : groupPropertiesListeners) {
+      Object event = Tracing.beginListenerCall();
       listener.usersAdded(group, users);
+      Tracing.endListenerCall(event, "groupProperties", listener);
+    }
+    metrics.listenerCalled("groupProperties", System.nanoTime() - start);
+    if (groupChangePublisher.hasSubscribers()) {
+      groupChangePublisher.publish(GroupChange.usersAdded(group, users));
     }
   }
   
   void usersRemovedFromGroup(List<User> users, Group group) {
-    logger.finer("Users: " + users.stream().map(User::getUsername).collect(Collectors.joining(", ")) + " removed from group: " + group);
+    logger.finer(() -> "Users: " + users.stream().map(User::getUsername).collect(Collectors.joining(", ")) + " removed from group: " + group);
+    long start = System.nanoTime();
     for (GroupPropertiesListener listener : groupPropertiesListeners) {
+      Object event = Tracing.beginListenerCall();
       listener.usersRemoved(group, users);
+      Tracing.endListenerCall(event, "groupProperties", listener);
+    }
+    metrics.listenerCalled("groupProperties", System.nanoTime() - start);
+    if (groupChangePublisher.hasSubscribers()) {
+      groupChangePublisher.publish(GroupChange.usersRemoved(group, users));
     }
   }
   
   void usersRolesChanged(Group group, List<Pair<User, Role>> newRoles) {
     logger.finer(
-            "User roles changed: " + newRoles.stream().map(p -> p.getFirst().getUsername() + ":" + p.getSecond()).collect(Collectors.joining(", ")));
+            () -> "User roles changed: " + newRoles.stream().map(p -> p.getFirst().getUsername() + ":" + p.getSecond()).collect(Collectors.joining(", ")));
+    long start = System.nanoTime();
     for (GroupPropertiesListener listener : groupPropertiesListeners) {
+      Object event = Tracing.beginListenerCall();
       listener.usersRolesChanged(group, newRoles);
+      Tracing.endListenerCall(event, "groupProperties", listener);
+    }
+    metrics.listenerCalled("groupProperties", System.nanoTime() - start);
+    if (groupChangePublisher.hasSubscribers()) {
+      groupChangePublisher.publish(GroupChange.rolesChanged(group, newRoles));
     }
   }
   
   void groupTopicChanged(Group group, String topic) {
-    logger.finer("Group: " + group + " topic changed to: " + topic);
+    logger.finer(() -> "Group: " + group + " topic changed to: " + topic);
+    long start = System.nanoTime();
     for (GroupPropertiesListener listener : groupPropertiesListeners) {
+      Object event = Tracing.beginListenerCall();
       listener.topicChanged(group, topic);
+      Tracing.endListenerCall(event, "groupProperties", listener);
+    }
+    metrics.listenerCalled("groupProperties", System.nanoTime() - start);
+    if (groupChangePublisher.hasSubscribers()) {
+      groupChangePublisher.publish(GroupChange.topicChanged(group, topic));
     }
   }
   
   // --- Listeners change methods ---
   
+  /**
+   * Adds a message listener, which receives all the messages sent to the account, directly or in a group.
+   * <p>
+   * To listen to the messages of a single conversation, prefer {@link Group#addMessageListener(MessageListener, String...)} and
+   * {@link User#addMessageListener(MessageListener, String...)}, which don't slow down the dispatch of the messages of other conversations.
+   *
+   * @param messageListener The message listener to add.
+   * @param messageTypes    The types of the messages to receive (see {@link MessageEvent#getMessageType()}), or none to receive all messages.
+   */
+  public void addMessageListener(MessageListener messageListener, String... messageTypes) {
+    messageListeners.add(new MessageRoute(messageListener, messageTypes));
+  }
+  
+  /**
+   * Removes a message listener.
+   *
+   * @param messageListener The message listener to remove.
+   */
+  public void removeMessageListener(MessageListener messageListener) {
+    messageListeners.removeIf(route -> route.listener == messageListener);
+  }
+  
   /**
    * Adds a user message listener.
    *
@@ -564,6 +1661,25 @@ public final class Skype {
     userPresenceListeners.remove(userPresenceListener);
   }
   
+  /**
+   * Adds a user presence batch listener.
+   *
+   * @param userPresenceBatchListener The user presence batch listener to add.
+   * @see #setPresenceBatching(long, int)
+   */
+  public void addUserPresenceBatchListener(UserPresenceBatchListener userPresenceBatchListener) {
+    userPresenceBatchListeners.add(userPresenceBatchListener);
+  }
+  
+  /**
+   * Removes a user presence batch listener.
+   *
+   * @param userPresenceBatchListener The user presence batch listener to remove.
+   */
+  public void removeUserPresenceBatchListener(UserPresenceBatchListener userPresenceBatchListener) {
+    userPresenceBatchListeners.remove(userPresenceBatchListener);
+  }
+  
   /**
    * Adds a group properties listener.
    *
@@ -0,0 +1,321 @@
+package fr.delthas.skype;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Runtime statistics about a Skype interface: packets and bytes exchanged, time spent handling packets and calling listeners, HTTP calls, token
+ * refreshes, reconnections and internal queues.
+ * <p>
+ * Counters are striped and lock-free, so they are always enabled. Each {@link Skype} object has its own metrics, which are kept across
+ * connections. They can be read directly with {@link Skype#getMetrics()} or exposed through JMX with {@link Skype#registerMBean()}.
+ * <p>
+ * All maps returned are snapshots of the keys seen so far, sorted by key; {@link Timer} values are live.
+ */
+public final class SkypeMetrics implements SkypeMetricsMXBean {
+  private final ConcurrentMap<String, LongAdder> packetsReceived = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, LongAdder> packetsSent = new ConcurrentHashMap<>();
+  private final LongAdder bytesReceived = new LongAdder();
+  private final LongAdder bytesSent = new LongAdder();
+  private final ConcurrentMap<String, Timer> packetHandlingTimes = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Timer> listenerTimes = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Timer> httpTimes = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, LongAdder> httpErrors = new ConcurrentHashMap<>();
+  private final LongAdder tokenRefreshSuccesses = new LongAdder();
+  private final LongAdder tokenRefreshFailures = new LongAdder();
+  private final LongAdder reconnects = new LongAdder();
+  private final ConcurrentMap<String, LongSupplier> queueDepths = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Timer> queueWaitTimes = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, LongAdder> queueDrops = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Timer> acknowledgmentTimes = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, LongAdder> sendFailures = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, LongAdder> sendThrottles = new ConcurrentHashMap<>();
+  
+  SkypeMetrics() {}
+  
+  private static Map<String, Long> snapshot(Map<String, LongAdder> counters) {
+    Map<String, Long> snapshot = new TreeMap<>();
+    counters.forEach((key, counter) -> snapshot.put(key, counter.sum()));
+    return Collections.unmodifiableMap(snapshot);
+  }
+  
+  private static Map<String, Timer> snapshotTimers(Map<String, Timer> timers) {
+    return Collections.unmodifiableMap(new TreeMap<>(timers));
+  }
+  
+  private static void increment(ConcurrentMap<String, LongAdder> counters, String key) {
+    LongAdder counter = counters.get(key);
+    if (counter == null) {
+      counter = counters.computeIfAbsent(key, k -> new LongAdder());
+    }
+    counter.increment();
+  }
+  
+  private static void record(ConcurrentMap<String, Timer> timers, String key, long nanos) {
+    Timer timer = timers.get(key);
+    if (timer == null) {
+      timer = timers.computeIfAbsent(key, k -> new Timer());
+    }
+    timer.record(nanos);
+  }
+  
+  /**
+   * @return The number of packets received from the notification server, by command.
+   */
+  @Override
+  public Map<String, Long> getPacketsReceived() {
+    return snapshot(packetsReceived);
+  }
+  
+  /**
+   * @return The number of packets sent to the notification server, by command.
+   */
+  @Override
+  public Map<String, Long> getPacketsSent() {
+    return snapshot(packetsSent);
+  }
+  
+  /**
+   * @return The number of bytes received from the notification server.
+   */
+  @Override
+  public long getBytesReceived() {
+    return bytesReceived.sum();
+  }
+  
+  /**
+   * @return The number of bytes sent to the notification server.
+   */
+  @Override
+  public long getBytesSent() {
+    return bytesSent.sum();
+  }
+  
+  /**
+   * @return The time spent parsing and handling received packets (including listeners), by command.
+   */
+  @Override
+  public Map<String, Timer> getPacketHandlingTimes() {
+    return snapshotTimers(packetHandlingTimes);
+  }
+  
+  /**
+   * @return The time spent in listeners, by listener type.
+   */
+  @Override
+  public Map<String, Timer> getListenerTimes() {
+    return snapshotTimers(listenerTimes);
+  }
+  
+  /**
+   * @return The number and latency of HTTP calls to the Skype web API, by endpoint.
+   */
+  @Override
+  public Map<String, Timer> getHttpTimes() {
+    return snapshotTimers(httpTimes);
+  }
+  
+  /**
+   * @return The number of HTTP calls to the Skype web API that failed or returned an error status, by endpoint.
+   */
+  @Override
+  public Map<String, Long> getHttpErrors() {
+    return snapshot(httpErrors);
+  }
+  
+  /**
+   * @return The number of successful periodic token refreshes.
+   */
+  @Override
+  public long getTokenRefreshSuccesses() {
+    return tokenRefreshSuccesses.sum();
+  }
+  
+  /**
+   * @return The number of failed periodic token refreshes.
+   */
+  @Override
+  public long getTokenRefreshFailures() {
+    return tokenRefreshFailures.sum();
+  }
+  
+  /**
+   * @return The number of times the notification session was re-established after being lost.
+   */
+  @Override
+  public long getReconnects() {
+    return reconnects.sum();
+  }
+  
+  /**
+   * @return The current number of elements waiting in the internal queues, by queue name.
+   */
+  @Override
+  public Map<String, Long> getQueueDepths() {
+    Map<String, Long> snapshot = new TreeMap<>();
+    queueDepths.forEach((key, depth) -> snapshot.put(key, depth.getAsLong()));
+    return Collections.unmodifiableMap(snapshot);
+  }
+  
+  /**
+   * @return The time elements waited in the internal queues before being handled, by queue name.
+   */
+  @Override
+  public Map<String, Timer> getQueueWaitTimes() {
+    return snapshotTimers(queueWaitTimes);
+  }
+  
+  /**
+   * @return The number of elements dropped because an internal queue was full, by queue name.
+   */
+  @Override
+  public Map<String, Long> getQueueDrops() {
+    return snapshot(queueDrops);
+  }
+  
+  /**
+   * @return The time between sending a packet tracked for acknowledgment and receiving the response of the server, by command.
+   */
+  @Override
+  public Map<String, Timer> getAcknowledgmentTimes() {
+    return snapshotTimers(acknowledgmentTimes);
+  }
+  
+  /**
+   * @return The number of packets tracked for acknowledgment that failed, timed out or were never acknowledged, by command.
+   */
+  @Override
+  public Map<String, Long> getSendFailures() {
+    return snapshot(sendFailures);
+  }
+  
+  /**
+   * @return The number of packets rejected by the server because they were sent too fast, and sent again later, by command.
+   */
+  @Override
+  public Map<String, Long> getSendThrottles() {
+    return snapshot(sendThrottles);
+  }
+  
+  void packetReceived(String command, int bytes) {
+    increment(packetsReceived, command);
+    bytesReceived.add(bytes);
+  }
+  
+  void packetSent(String command, int bytes) {
+    increment(packetsSent, command);
+    bytesSent.add(bytes);
+  }
+  
+  void packetHandled(String command, long nanos) {
+    record(packetHandlingTimes, command, nanos);
+  }
+  
+  void listenerCalled(String type, long nanos) {
+    record(listenerTimes, type, nanos);
+  }
+  
+  void httpCall(String endpoint, long nanos, boolean error) {
+    record(httpTimes, endpoint, nanos);
+    if (error) {
+      increment(httpErrors, endpoint);
+    }
+  }
+  
+  void tokenRefresh(boolean success) {
+    if (success) {
+      tokenRefreshSuccesses.increment();
+    } else {
+      tokenRefreshFailures.increment();
+    }
+  }
+  
+  void reconnected() {
+    reconnects.increment();
+  }
+  
+  void registerQueue(String name, LongSupplier depth) {
+    queueDepths.put(name, depth);
+  }
+  
+  void unregisterQueue(String name) {
+    queueDepths.remove(name);
+  }
+  
+  void queueWait(String name, long nanos) {
+    record(queueWaitTimes, name, nanos);
+  }
+  
+  void queueDropped(String name) {
+    increment(queueDrops, name);
+  }
+  
+  void sendAcknowledged(String command, long nanos) {
+    record(acknowledgmentTimes, command, nanos);
+  }
+  
+  void sendFailed(String command) {
+    increment(sendFailures, command);
+  }
+  
+  void sendThrottled(String command) {
+    increment(sendThrottles, command);
+  }
+  
+  /**
+   * Statistics about a timed operation: number of calls, total and maximum duration.
+   */
+  public static final class Timer {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+  
+    Timer() {}
+  
+    void record(long nanos) {
+      count.increment();
+      totalNanos.add(nanos);
+      maxNanos.accumulate(nanos);
+    }
+  
+    /**
+     * @return The number of recorded operations.
+     */
+    public long getCount() {
+      return count.sum();
+    }
+  
+    /**
+     * @return The total duration of all recorded operations, in nanoseconds.
+     */
+    public long getTotalNanos() {
+      return totalNanos.sum();
+    }
+  
+    /**
+     * @return The maximum duration of a recorded operation, in nanoseconds.
+     */
+    public long getMaxNanos() {
+      return maxNanos.get();
+    }
+  
+    /**
+     * @return The mean duration of the recorded operations, in nanoseconds, or 0 if there are none.
+     */
+    public double getMeanNanos() {
+      long count = getCount();
+      return count == 0 ? 0 : (double) getTotalNanos() / count;
+    }
+  
+    @Override
+    public String toString() {
+      return "Timer: count: " + getCount() + " mean: " + (long) getMeanNanos() + "ns max: " + getMaxNanos() + "ns";
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package fr.delthas.skype;
+
+import java.util.Map;
+
+/**
+ * The JMX management interface of {@link SkypeMetrics}, registered with {@link Skype#registerMBean()}.
+ *
+ * @see SkypeMetrics
+ */
+@SuppressWarnings("javadoc")
+public interface SkypeMetricsMXBean {
+  Map<String, Long> getPacketsReceived();
+  
+  Map<String, Long> getPacketsSent();
+  
+  long getBytesReceived();
+  
+  long getBytesSent();
+  
+  Map<String, SkypeMetrics.Timer> getPacketHandlingTimes();
+  
+  Map<String, SkypeMetrics.Timer> getListenerTimes();
+  
+  Map<String, SkypeMetrics.Timer> getHttpTimes();
+  
+  Map<String, Long> getHttpErrors();
+  
+  long getTokenRefreshSuccesses();
+  
+  long getTokenRefreshFailures();
+  
+  long getReconnects();
+  
+  Map<String, Long> getQueueDepths();
+  
+  Map<String, SkypeMetrics.Timer> getQueueWaitTimes();
+  
+  Map<String, Long> getQueueDrops();
+  
+  Map<String, SkypeMetrics.Timer> getAcknowledgmentTimes();
+  
+  Map<String, Long> getSendFailures();
+  
+  Map<String, Long> getSendThrottles();
+}
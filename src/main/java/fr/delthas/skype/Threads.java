@@ -0,0 +1,74 @@
+package fr.delthas.skype;
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates the internal threads of the library: receiver, processor, writer, reconnection, token refresh, error reporting, presence and log
+ * threads, and the threads of the decode and I/O pools. Only the threads of the shared scheduler are always platform threads.
+ * <p>
+ * If virtual threads are enabled (see {@link Skype#setVirtualThreads(boolean)}), these threads are virtual threads, which are detected at runtime so
+ * that the library still runs on Java 8. Blocking I/O is never done while holding a monitor (a {@link java.util.concurrent.locks.ReentrantLock} is
+ * used instead), so that virtual threads blocked on I/O don't pin their carrier thread.
+ * <p>
+ * Virtual threads are always daemon threads.
+ */
+final class Threads {
+  private static final Method ofVirtual;
+  private static final Method name;
+  private static final Method unstarted;
+  private static volatile boolean virtual = false;
+  
+  static {
+    Method ofVirtualMethod = null;
+    Method nameMethod = null;
+    Method unstartedMethod = null;
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+      nameMethod = builderClass.getMethod("name", String.class);
+      unstartedMethod = builderClass.getMethod("unstarted", Runnable.class);
+      // virtual threads are a preview feature on Java 19 and 20, and throw if preview features are disabled
+      unstartedMethod.invoke(nameMethod.invoke(ofVirtualMethod.invoke(null), "Skype-Probe-Thread"), (Runnable) () -> {});
+    } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+      ofVirtualMethod = null;
+    }
+    ofVirtual = ofVirtualMethod;
+    name = nameMethod;
+    unstarted = unstartedMethod;
+  }
+  
+  private Threads() {
+    // prevent instantiation
+    throw new IllegalStateException("This class cannot be instantiated");
+  }
+  
+  static boolean isVirtualSupported() {
+    return ofVirtual != null;
+  }
+  
+  static boolean setVirtual(boolean virtual) {
+    if (virtual && !isVirtualSupported()) {
+      return false;
+    }
+    Threads.virtual = virtual;
+    return true;
+  }
+  
+  /**
+   * @return A new unstarted thread, which is a virtual thread if virtual threads are enabled, or else a platform thread with the specified daemon
+   * status.
+   */
+  static Thread newThread(Runnable task, String threadName, boolean daemon) {
+    if (virtual) {
+      try {
+        return (Thread) unstarted.invoke(name.invoke(ofVirtual.invoke(null), threadName), task);
+      } catch (ReflectiveOperationException e) {
+        // Should never happen, as it succeeded once already
+        throw new RuntimeException(e);
+      }
+    }
+    Thread thread = new Thread(task, threadName);
+    thread.setDaemon(daemon);
+    return thread;
+  }
+}
@@ -0,0 +1,77 @@
+package fr.delthas.skype;
+
+/**
+ * Entry points for the Java Flight Recorder events emitted by the library (see {@link JfrEvents}).
+ * <p>
+ * The {@code begin} methods return an opaque event object, or null if JFR isn't available in this JVM or if the event is disabled (the default).
+ * The {@code end} methods must be passed the object returned by {@code begin} and do nothing if it is null. The events are only emitted on
+ * Java 11 and newer, from the multi-release jar (see {@link JfrEvents}), and {@link JfrEvents} is only called when the {@code jdk.jfr} module is
+ * available.
+ */
+final class Tracing {
+  private static final boolean available = isAvailable();
+  
+  private Tracing() {
+    // prevent instantiation
+    throw new IllegalStateException("This class cannot be instantiated");
+  }
+  
+  private static boolean isAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event", false, Tracing.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+  
+  static Object beginPacketRead() {
+    return available ? JfrEvents.beginPacketRead() : null;
+  }
+  
+  static void endPacketRead(Object event, String command, int size) {
+    if (event != null) {
+      JfrEvents.endPacketRead(event, command, size);
+    }
+  }
+  
+  static Object beginPacketProcess() {
+    return available ? JfrEvents.beginPacketProcess() : null;
+  }
+  
+  static void endPacketProcess(Object event, String command, String parameters, int size) {
+    if (event != null) {
+      JfrEvents.endPacketProcess(event, command, parameters, size);
+    }
+  }
+  
+  static Object beginListenerCall() {
+    return available ? JfrEvents.beginListenerCall() : null;
+  }
+  
+  static void endListenerCall(Object event, String type, Object listener) {
+    if (event != null) {
+      JfrEvents.endListenerCall(event, type, listener);
+    }
+  }
+  
+  static Object beginHttpRequest() {
+    return available ? JfrEvents.beginHttpRequest() : null;
+  }
+  
+  static void endHttpRequest(Object event, String endpoint, String method, int status) {
+    if (event != null) {
+      JfrEvents.endHttpRequest(event, endpoint, method, status);
+    }
+  }
+  
+  static Object beginUicComputation() {
+    return available ? JfrEvents.beginUicComputation() : null;
+  }
+  
+  static void endUicComputation(Object event, String type) {
+    if (event != null) {
+      JfrEvents.endUicComputation(event, type);
+    }
+  }
+}
@@ -130,11 +130,21 @@ final class UicConnector {
   }
   
   public static String getUICSkype(String username, String password, String nonce) throws IOException, GeneralSecurityException {
-    return getUIC(username, password, nonce, null);
+    Object event = Tracing.beginUicComputation();
+    try {
+      return getUIC(username, password, nonce, null);
+    } finally {
+      Tracing.endUicComputation(event, "skype");
+    }
   }
   
   public static String getUICMicrosoft(String oauth) throws IOException, GeneralSecurityException {
-    return getUIC(null, null, null, oauth);
+    Object event = Tracing.beginUicComputation();
+    try {
+      return getUIC(null, null, null, oauth);
+    } finally {
+      Tracing.endUicComputation(event, "microsoft");
+    }
   }
   
   @SuppressWarnings({"resource", "null"})
@@ -5,6 +5,8 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A Skype account.
@@ -21,7 +23,7 @@ public class User {
   private String city;
   private String displayName;
   private String avatarUrl;
-  private Presence presence = Presence.OFFLINE;
+  private volatile Presence presence = Presence.OFFLINE;
   
   User(Skype skype, String username) {
     this.skype = skype;
@@ -30,6 +32,8 @@ public class User {
   
   /**
    * Blocks this user (without reporting the account).
+   * <p>
+   * If the server rejects it, the rejection is only logged: use {@link #blockAsync()} to be notified of it.
    */
   public void block() {
     skype.block(this);
@@ -37,13 +41,43 @@ public class User {
   
   /**
    * Unblocks this user.
+   * <p>
+   * If the server rejects it, the rejection is only logged: use {@link #unblockAsync()} to be notified of it.
    */
   public void unblock() {
     skype.unblock(this);
   }
   
+  /**
+   * Blocks this user (without reporting the account), asynchronously.
+   * <p>
+   * Unlike {@link #block()}, this runs on a background thread, and an error only fails the returned future: it doesn't disconnect the Skype interface.
+   *
+   * @return A future completed when the server has blocked the user, or completed exceptionally with an {@link IOException} (an
+   * {@link org.jsoup.HttpStatusException} if the server rejects it), or with a {@link java.util.concurrent.TimeoutException}.
+   * @see Skype#setAsyncCallTimeout(long)
+   */
+  public CompletableFuture<Void> blockAsync() {
+    return skype.blockAsync(this);
+  }
+  
+  /**
+   * Unblocks this user, asynchronously.
+   * <p>
+   * Unlike {@link #unblock()}, this runs on a background thread, and an error only fails the returned future: it doesn't disconnect the Skype interface.
+   *
+   * @return A future completed when the server has unblocked the user, or completed exceptionally with an {@link IOException} (an
+   * {@link org.jsoup.HttpStatusException} if the server rejects it), or with a {@link java.util.concurrent.TimeoutException}.
+   * @see Skype#setAsyncCallTimeout(long)
+   */
+  public CompletableFuture<Void> unblockAsync() {
+    return skype.unblockAsync(this);
+  }
+  
   /**
    * Sends a contact request to this account.
+   * <p>
+   * If the server rejects it, the rejection is only logged: use {@link #sendContactRequestAsync(String)} to be notified of it.
    *
    * @param greeting The message to send in the contact request.
    */
@@ -53,13 +87,46 @@ public class User {
   
   /**
    * Removes this user from the list of contacts of the Skype account. If the user isn't a contact, nothing happens.
+   * <p>
+   * If the server rejects it, the rejection is only logged: use {@link #removeFromContactsAsync()} to be notified of it.
    */
   public void removeFromContacts() {
     skype.removeFromContacts(this);
   }
   
+  /**
+   * Sends a contact request to this account, asynchronously.
+   * <p>
+   * Unlike {@link #sendContactRequest(String)}, this runs on a background thread, and an error only fails the returned future: it doesn't disconnect the Skype interface.
+   *
+   * @param greeting The message to send in the contact request.
+   * @return A future completed when the server has received the request, or completed exceptionally with an {@link IOException} (an
+   * {@link org.jsoup.HttpStatusException} if the server rejects it), or with a {@link java.util.concurrent.TimeoutException}.
+   * @see Skype#setAsyncCallTimeout(long)
+   */
+  public CompletableFuture<Void> sendContactRequestAsync(String greeting) {
+    return skype.sendContactRequestAsync(this, greeting);
+  }
+  
+  /**
+   * Removes this user from the list of contacts of the Skype account, asynchronously.
+   * <p>
+   * Unlike {@link #removeFromContacts()}, this runs on a background thread, and an error only fails the returned future: it doesn't disconnect the Skype interface.
+   *
+   * @return A future completed when the server has removed the user, or completed exceptionally with an {@link IOException} (an
+   * {@link org.jsoup.HttpStatusException} if the server rejects it), or with a {@link java.util.concurrent.TimeoutException}.
+   * @see Skype#setAsyncCallTimeout(long)
+   */
+  public CompletableFuture<Void> removeFromContactsAsync() {
+    return skype.removeFromContactsAsync(this);
+  }
+  
   /**
    * Sends a message to this user.
+   * <p>
+   * This method returns once the message is queued, without waiting for its acknowledgment: if the server rejects the message, or doesn't
+   * acknowledge it in time, the error is reported later like the other errors of the Skype interface (see
+   * {@link Skype#setErrorListener(ErrorListener)}). Use {@link #sendMessageAsync(String)} to handle the errors of each message instead.
    *
    * @param message The message to send to this user.
    */
@@ -67,6 +134,73 @@ public class User {
     skype.sendUserMessage(this, message);
   }
   
+  /**
+   * Sends a message to this user, and tracks its acknowledgment by the server.
+   * <p>
+   * Unlike {@link #sendMessage(String)}, an error reported by the server for this message only fails the returned future, and doesn't disconnect
+   * the Skype interface. This method blocks while too many messages are waiting for their acknowledgment.
+   * <p>
+   * The returned future is completed from an internal thread: actions that take time must be chained with the asynchronous methods of
+   * {@link CompletableFuture}.
+   *
+   * @param message The message to send to this user.
+   * @return A future completed when the server acknowledges the message, or completed exceptionally with an {@link IOException} if the
+   * server rejects it or the connection is lost, or with a {@link java.util.concurrent.TimeoutException} if it isn't acknowledged in time.
+   * @see Skype#setSendWindow(int, long)
+   */
+  public CompletableFuture<Void> sendMessageAsync(String message) {
+    return skype.sendUserMessageAsync(this, message);
+  }
+  
+  /**
+   * Returns the most recent messages of the conversation with this user, sent and received, if the message history is enabled.
+   *
+   * @param n The maximum number of messages to return.
+   * @return The last n messages of the conversation, oldest first, or an empty list if the message history is disabled (snapshot, won't be
+   * updated).
+   * @see Skype#setMessageHistory(int, long)
+   */
+  public List<ChatMessage> getRecentMessages(int n) {
+    return skype.getRecentMessages(this, n);
+  }
+  
+  /**
+   * Adds a message listener that only receives the messages sent directly by this user to the Skype account.
+   * <p>
+   * Messages are routed to the listeners of their conversation directly, so these listeners don't slow down the dispatch of the messages of
+   * other conversations.
+   *
+   * @param messageListener The message listener to add.
+   * @param messageTypes    The types of the messages to receive (see {@link MessageEvent#getMessageType()}), or none to receive all messages.
+   */
+  public void addMessageListener(MessageListener messageListener, String... messageTypes) {
+    skype.addConversationMessageListener(this, messageListener, messageTypes);
+  }
+  
+  /**
+   * Removes a message listener added with {@link #addMessageListener(MessageListener, String...)}.
+   *
+   * @param messageListener The message listener to remove.
+   */
+  public void removeMessageListener(MessageListener messageListener) {
+    skype.removeConversationMessageListener(this, messageListener);
+  }
+  
+  /**
+   * Returns the groups the Skype account is in that this user is a member of.
+   * <p>
+   * Groups are indexed by member as their members change, so this doesn't scan the groups.
+   * <p>
+   * With lazy group loading, the members of a group are only known once it has been loaded: the groups that haven't been accessed and haven't
+   * received any event since the connection may be missing from the list.
+   *
+   * @return The groups this user is in (snapshot, won't be updated).
+   * @see Skype#setLazyGroupLoading(int)
+   */
+  public List<Group> getGroups() {
+    return skype.getGroups(this);
+  }
+  
   /**
    * @return The username of this user.
    */
@@ -159,6 +293,9 @@ public class User {
    * The avatar is the data of a jpeg (compressed) image that can be transformed into a Image by several methods such as {@link java.awt.Toolkit#createImage(byte[])}, {@link ImageIO#read(InputStream)}, {@link javax.swing.ImageIcon#ImageIcon(byte[])}.
    * <p>
    * Use {@link #getAvatarImage()} to get a {@link BufferedImage} directly (uses {@link ImageIO} internally).
+   * <p>
+   * The returned value must be checked for null: the avatar is not visible if this user has no avatar URL, or if the server denies access to it
+   * (HTTP 403) or doesn't find it (HTTP 404). Null is also returned if fetching the avatar fails for another reason.
    *
    * @return The avatar (account picture) of this user, as a byte array, or null if not visible.
    * @see #getAvatarImage()
@@ -167,6 +304,21 @@ public class User {
     return skype.getAvatar(this);
   }
   
+  /**
+   * Fetches the avatar of the user asynchronously: the returned future is completed with the data returned by {@link #getAvatar()}, or with
+   * null if the avatar is not visible.
+   * <p>
+   * The result must be checked for null: the avatar is not visible if this user has no avatar URL, or if the server denies access to it (HTTP 403)
+   * or doesn't find it (HTTP 404). Other errors only fail the returned future: they don't disconnect the Skype interface.
+   *
+   * @return A future completed with the avatar of this user, or with null if it is not visible, or completed exceptionally with an
+   * {@link IOException} or a {@link java.util.concurrent.TimeoutException}.
+   * @see Skype#setAsyncCallTimeout(long)
+   */
+  public CompletableFuture<byte[]> getAvatarAsync() {
+    return skype.getAvatarAsync(this);
+  }
+  
   /**
    * Fetches and returns the avatar of the user as a {@link BufferedImage}, or null if the avatar is not visible.
    * <p>
@@ -238,12 +390,17 @@ public class User {
   }
   
   void setPresence(Presence presence, boolean triggerListeners) {
-    if (presence != this.presence) {
-      Presence oldPresence = this.presence;
-      this.presence = presence;
-      if (triggerListeners) {
-        skype.userPresenceChanged(this, oldPresence, presence);
+    Presence oldPresence;
+    synchronized (this) {
+      if (presence == this.presence) {
+        return;
       }
+      oldPresence = this.presence;
+      this.presence = presence;
+      skype.updatePresenceIndex(this, oldPresence, presence);
+    }
+    if (triggerListeners) {
+      skype.userPresenceChanged(this, oldPresence, presence);
     }
   }
   
@@ -0,0 +1,49 @@
+package fr.delthas.skype;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The groups of each user, updated as users join and leave groups.
+ * <p>
+ * The groups of a user are an immutable list, replaced atomically on each update, so that it can be returned to any thread without copying it.
+ */
+final class UserGroupIndex {
+  private final Map<User, List<Group>> userGroups = new ConcurrentHashMap<>();
+  
+  List<Group> get(User user) {
+    return userGroups.getOrDefault(user, Collections.emptyList());
+  }
+  
+  void joined(User user, Group group) {
+    userGroups.compute(user, (u, groups) -> {
+      if (groups == null) {
+        return Collections.singletonList(group);
+      }
+      if (groups.contains(group)) {
+        return groups;
+      }
+      List<Group> newGroups = new ArrayList<>(groups.size() + 1);
+      newGroups.addAll(groups);
+      newGroups.add(group);
+      return Collections.unmodifiableList(newGroups);
+    });
+  }
+  
+  void left(User user, Group group) {
+    userGroups.computeIfPresent(user, (u, groups) -> {
+      if (!groups.contains(group)) {
+        return groups;
+      }
+      if (groups.size() == 1) {
+        return null;
+      }
+      List<Group> newGroups = new ArrayList<>(groups);
+      newGroups.remove(group);
+      return Collections.unmodifiableList(newGroups);
+    });
+  }
+}
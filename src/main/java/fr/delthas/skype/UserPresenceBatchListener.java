@@ -0,0 +1,37 @@
+package fr.delthas.skype;
+
+import java.util.List;
+
+/**
+ * A listener for batches of changes to user presences, useful when many users change presence at once, for example right after connecting.
+ * <p>
+ * Changes are accumulated for a time window (or until a maximum number of changes is reached, see {@link Skype#setPresenceBatching(long, int)})
+ * and delivered together. If a user changes presence several times in the same batch, only one change is delivered, from the presence the user had
+ * at the beginning of the batch to its latest presence; if both are the same, no change is delivered for this user.
+ *
+ * @see UserPresenceListener
+ */
+@FunctionalInterface
+public interface UserPresenceBatchListener {
+  /**
+   * Called with a batch of presence changes, at most one per user.
+   *
+   * @param changes The presence changes, in the order in which the users first changed presence during the batch.
+   */
+  void presencesChanged(List<PresenceChange> changes);
+  
+  /**
+   * Called once per connection, when {@link Skype#connect()} returns, with the presence changes received while connecting.
+   * <p>
+   * The initial presences of the contacts are sent by the server after the contact list, and mostly arrive after {@link Skype#connect()} returns:
+   * this batch only holds those received until then (possibly none), and the others are delivered by {@link #presencesChanged(List)} like any
+   * other change.
+   * <p>
+   * By default, this calls {@link #presencesChanged(List)}.
+   *
+   * @param presences The presence changes received while connecting, at most one per user.
+   */
+  default void initialPresencesReceived(List<PresenceChange> presences) {
+    presencesChanged(presences);
+  }
+}
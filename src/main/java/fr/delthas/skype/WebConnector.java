@@ -6,6 +6,7 @@ import org.json.JSONObject;
 import org.jsoup.Connection;
 import org.jsoup.Connection.Method;
 import org.jsoup.Connection.Response;
+import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
 
 import java.io.IOException;
@@ -13,6 +14,7 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,8 +23,9 @@ class WebConnector {
   private static final String SERVER_HOSTNAME = "https://api.skype.com";
   private final Skype skype;
   private final String username, password;
-  private String skypeToken;
+  private volatile String skypeToken;
   private boolean updated = false;
+  private final ReentrantLock refreshLock = new ReentrantLock();
   
   public WebConnector(Skype skype, String username, String password) {
     this.skype = skype;
@@ -37,43 +40,65 @@ class WebConnector {
     return Jsoup.parseBodyFragment(string).text();
   }
   
-  public synchronized long refreshTokens(String token) throws IOException {
-    logger.finer("Refreshing tokens");
-    long expire = generateToken(token);
-    updateContacts();
-    return expire;
+  public long refreshTokens(String token) throws IOException {
+    refreshLock.lock();
+    try {
+      logger.finer("Refreshing tokens");
+      long expire = generateToken(token);
+      updateContacts();
+      return expire;
+    } finally {
+      refreshLock.unlock();
+    }
   }
   
+  // the actions below throw an HttpStatusException if the server rejects them
+  
   public void block(User user) throws IOException {
-    sendRequest(Method.PUT, "/users/self/contacts/" + user.getUsername() + "/block", "reporterIp", "127.0.0.1");
+    checkStatus(sendRequest("block", Method.PUT, "/users/self/contacts/" + user.getUsername() + "/block", "reporterIp", "127.0.0.1"));
   }
   
   public void unblock(User user) throws IOException {
-    sendRequest(Method.PUT, "/users/self/contacts/" + user.getUsername() + "/unblock");
+    checkStatus(sendRequest("unblock", Method.PUT, "/users/self/contacts/" + user.getUsername() + "/unblock"));
   }
   
   public void sendContactRequest(User user, String greeting) throws IOException {
-    sendRequest(Method.PUT, "/users/self/contacts/auth-request/" + user.getUsername(), "greeting", greeting);
+    checkStatus(sendRequest("sendContactRequest", Method.PUT, "/users/self/contacts/auth-request/" + user.getUsername(), "greeting", greeting));
   }
   
   public void acceptContactRequest(ContactRequest contactRequest) throws IOException {
-    sendRequest(Method.PUT, "/users/self/contacts/auth-request/" + contactRequest.getUser().getUsername() + "/accept");
+    checkStatus(sendRequest("acceptContactRequest", Method.PUT, "/users/self/contacts/auth-request/" + contactRequest.getUser().getUsername() + "/accept"));
   }
   
   public void declineContactRequest(ContactRequest contactRequest) throws IOException {
-    sendRequest(Method.PUT, "/users/self/contacts/auth-request/" + contactRequest.getUser().getUsername() + "/decline");
+    checkStatus(sendRequest("declineContactRequest", Method.PUT, "/users/self/contacts/auth-request/" + contactRequest.getUser().getUsername() + "/decline"));
   }
   
   public void removeFromContacts(User user) throws IOException {
-    sendRequest(Method.DELETE, "/users/self/contacts/" + user.getUsername());
+    checkStatus(sendRequest("removeFromContacts", Method.DELETE, "/users/self/contacts/" + user.getUsername()));
   }
   
   public byte[] getAvatar(User user) throws IOException {
-    return sendRequest(Method.GET, user.getAvatarUrl(), true).bodyAsBytes();
+    if (user.getAvatarUrl() == null) {
+      return null;
+    }
+    Response response = sendRequest("avatar", Method.GET, user.getAvatarUrl(), true);
+    if (response.statusCode() == 403 || response.statusCode() == 404) {
+      // the avatar isn't visible
+      return null;
+    }
+    return checkStatus(response).bodyAsBytes();
+  }
+  
+  private static Response checkStatus(Response response) throws HttpStatusException {
+    if (response.statusCode() >= 400) {
+      throw new HttpStatusException("HTTP error " + response.statusCode() + " " + response.statusMessage(), response.statusCode(), response.url().toString());
+    }
+    return response;
   }
   
   public void updateUser(User user) throws IOException {
-    String reponse = sendRequest(Method.GET, "/users/" + user.getUsername() + "/profile/public", "clientVersion", "0/7.12.0.101/").body();
+    String reponse = sendRequest("publicProfile", Method.GET, "/users/" + user.getUsername() + "/profile/public", "clientVersion", "0/7.12.0.101/").body();
     JSONObject userJSON = new JSONObject(reponse);
     userJSON.put("username", user.getUsername());
     updateUser(userJSON, false);
@@ -84,12 +109,12 @@ class WebConnector {
       return;
     }
     updated = true;
-    String selfResponse = sendRequest(Method.GET, "/users/self/profile").body();
+    String selfResponse = sendRequest("selfProfile", Method.GET, "/users/self/profile").body();
     JSONObject selfJSON = new JSONObject(selfResponse);
     updateUser(selfJSON, false);
     
     String profilesResponse =
-            sendRequest(Method.GET, "https://contacts.skype.com/contacts/v2/users/" + getSelfLiveUsername() + "/contacts", true).body();
+            sendRequest("contacts", Method.GET, "https://contacts.skype.com/contacts/v2/users/" + getSelfLiveUsername() + "/contacts", true).body();
     try {
       JSONObject json = new JSONObject(profilesResponse);
       if (json.optString("message", null) != null) {
@@ -186,11 +211,11 @@ class WebConnector {
       byte[] md5hash = md.digest(String.format("%s\nskyper\n%s", username, password).getBytes(StandardCharsets.UTF_8));
       String base64hash = Base64.getEncoder().encodeToString(md5hash);
       logger.finest("Getting Skype token");
-      response = sendRequest(Method.POST, "/login/skypetoken", "scopes", "client", "clientVersion", "0/7.12.0.101/", "username", username,
+      response = sendRequest("skypeToken", Method.POST, "/login/skypetoken", "scopes", "client", "clientVersion", "0/7.12.0.101/", "username", username,
               "passwordHash", base64hash).body();
     } else {
       logger.finest("Getting Microsoft token");
-      response = sendRequest(Method.POST, "/rps/skypetoken", "scopes", "client", "clientVersion", "0/7.12.0.101/", "access_token", token, "partner", "999").body();
+      response = sendRequest("skypeToken", Method.POST, "/rps/skypetoken", "scopes", "client", "clientVersion", "0/7.12.0.101/", "access_token", token, "partner", "999").body();
     }
     try {
       JSONObject jsonResponse = new JSONObject(response);
@@ -214,21 +239,33 @@ class WebConnector {
     }
   }
   
-  private Response sendRequest(Method method, String apiPath, boolean absoluteApiPath, String... keyval) throws IOException {
+  private Response sendRequest(String endpoint, Method method, String apiPath, boolean absoluteApiPath, String... keyval) throws IOException {
     String url = absoluteApiPath ? apiPath : SERVER_HOSTNAME + apiPath;
     Connection conn = Jsoup.connect(url).maxBodySize(100 * 1024 * 1024).timeout(10000).method(method).ignoreContentType(true).ignoreHttpErrors(true);
-    logger.finest("Sending " + method + " request at " + url);
+    logger.finest(() -> "Sending " + method + " request at " + url);
     if (skypeToken != null) {
       conn.header("X-Skypetoken", skypeToken);
     } else {
-      logger.fine("No token sent for the request at: " + url);
+      logger.fine(() -> "No token sent for the request at: " + url);
     }
     conn.data(keyval);
-    return conn.execute();
+    long start = System.nanoTime();
+    Object event = Tracing.beginHttpRequest();
+    Response response;
+    try {
+      response = conn.execute();
+    } catch (IOException e) {
+      Tracing.endHttpRequest(event, endpoint, method.name(), -1);
+      skype.getMetrics().httpCall(endpoint, System.nanoTime() - start, true);
+      throw e;
+    }
+    Tracing.endHttpRequest(event, endpoint, method.name(), response.statusCode());
+    skype.getMetrics().httpCall(endpoint, System.nanoTime() - start, response.statusCode() >= 400);
+    return response;
   }
   
-  private Response sendRequest(Method method, String apiPath, String... keyval) throws IOException {
-    return sendRequest(method, apiPath, false, keyval);
+  private Response sendRequest(String endpoint, Method method, String apiPath, String... keyval) throws IOException {
+    return sendRequest(endpoint, method, apiPath, false, keyval);
   }
   
   private String getSelfLiveUsername() {
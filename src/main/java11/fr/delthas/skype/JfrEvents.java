@@ -0,0 +1,177 @@
+package fr.delthas.skype;
+
+import jdk.jfr.*;
+
+/**
+ * Java Flight Recorder events of the library. All events are disabled by default and can be enabled in a JFR configuration with their name, for
+ * example {@code fr.delthas.skype.PacketProcess#enabled=true}.
+ * <p>
+ * This class must only be accessed through {@link Tracing}, which checks that JFR is available first. It is compiled with Java 11 into
+ * {@code META-INF/versions/11} of the multi-release jar, where it replaces the no-op version of {@code src/main/java}, so that the library still
+ * builds and runs on Java 8.
+ */
+final class JfrEvents {
+  private JfrEvents() {
+    // prevent instantiation
+    throw new IllegalStateException("This class cannot be instantiated");
+  }
+  
+  static Object beginPacketRead() {
+    PacketReadEvent event = new PacketReadEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+  
+  static void endPacketRead(Object event, String command, int size) {
+    PacketReadEvent packetReadEvent = (PacketReadEvent) event;
+    packetReadEvent.end();
+    if (packetReadEvent.shouldCommit()) {
+      packetReadEvent.command = command;
+      packetReadEvent.size = size;
+      packetReadEvent.commit();
+    }
+  }
+  
+  static Object beginPacketProcess() {
+    PacketProcessEvent event = new PacketProcessEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+  
+  static void endPacketProcess(Object event, String command, String parameters, int size) {
+    PacketProcessEvent packetProcessEvent = (PacketProcessEvent) event;
+    packetProcessEvent.end();
+    if (packetProcessEvent.shouldCommit()) {
+      packetProcessEvent.command = command;
+      packetProcessEvent.parameters = parameters;
+      packetProcessEvent.size = size;
+      packetProcessEvent.commit();
+    }
+  }
+  
+  static Object beginListenerCall() {
+    ListenerCallEvent event = new ListenerCallEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+  
+  static void endListenerCall(Object event, String type, Object listener) {
+    ListenerCallEvent listenerCallEvent = (ListenerCallEvent) event;
+    listenerCallEvent.end();
+    if (listenerCallEvent.shouldCommit()) {
+      listenerCallEvent.type = type;
+      listenerCallEvent.listenerClass = listener.getClass();
+      listenerCallEvent.commit();
+    }
+  }
+  
+  static Object beginHttpRequest() {
+    HttpRequestEvent event = new HttpRequestEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+  
+  static void endHttpRequest(Object event, String endpoint, String method, int status) {
+    HttpRequestEvent httpRequestEvent = (HttpRequestEvent) event;
+    httpRequestEvent.end();
+    if (httpRequestEvent.shouldCommit()) {
+      httpRequestEvent.endpoint = endpoint;
+      httpRequestEvent.method = method;
+      httpRequestEvent.status = status;
+      httpRequestEvent.commit();
+    }
+  }
+  
+  static Object beginUicComputation() {
+    UicComputationEvent event = new UicComputationEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+  
+  static void endUicComputation(Object event, String type) {
+    UicComputationEvent uicComputationEvent = (UicComputationEvent) event;
+    uicComputationEvent.end();
+    if (uicComputationEvent.shouldCommit()) {
+      uicComputationEvent.type = type;
+      uicComputationEvent.commit();
+    }
+  }
+  
+  @Name("fr.delthas.skype.PacketRead")
+  @Label("Packet Read")
+  @Description("A packet read from the notification server socket, from its first byte to its last byte")
+  @Category({"JavaSkype", "Notification"})
+  @Enabled(false)
+  static class PacketReadEvent extends Event {
+    @Label("Command")
+    String command;
+    @Label("Size")
+    @DataAmount
+    int size;
+  }
+  
+  @Name("fr.delthas.skype.PacketProcess")
+  @Label("Packet Process")
+  @Description("A packet from the notification server being parsed and dispatched to listeners")
+  @Category({"JavaSkype", "Notification"})
+  @Enabled(false)
+  static class PacketProcessEvent extends Event {
+    @Label("Command")
+    String command;
+    @Label("Parameters")
+    String parameters;
+    @Label("Body Length")
+    int size;
+  }
+  
+  @Name("fr.delthas.skype.ListenerCall")
+  @Label("Listener Call")
+  @Description("A call to a listener registered by the application")
+  @Category({"JavaSkype", "Listener"})
+  @Enabled(false)
+  static class ListenerCallEvent extends Event {
+    @Label("Listener Type")
+    String type;
+    @Label("Listener Class")
+    Class<?> listenerClass;
+  }
+  
+  @Name("fr.delthas.skype.HttpRequest")
+  @Label("HTTP Request")
+  @Description("A request to the Skype web API")
+  @Category({"JavaSkype", "Web"})
+  @Enabled(false)
+  static class HttpRequestEvent extends Event {
+    @Label("Endpoint")
+    String endpoint;
+    @Label("Method")
+    String method;
+    @Label("Status")
+    int status;
+  }
+  
+  @Name("fr.delthas.skype.UicComputation")
+  @Label("UIC Computation")
+  @Description("The computation of a UIC token, including the handshake with the UIC servers")
+  @Category({"JavaSkype", "Notification"})
+  @Enabled(false)
+  static class UicComputationEvent extends Event {
+    @Label("Account Type")
+    String type;
+  }
+}
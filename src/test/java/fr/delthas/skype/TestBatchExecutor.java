@@ -0,0 +1,57 @@
+package fr.delthas.skype;
+
+import org.jsoup.HttpStatusException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SuppressWarnings({"javadoc", "static-method"})
+public class TestBatchExecutor {
+
+  private final AtomicInteger running = new AtomicInteger();
+  private final AtomicInteger maxRunning = new AtomicInteger();
+  private final ConcurrentHashMap<Integer, Integer> attempts = new ConcurrentHashMap<>();
+
+  private void call(int item) throws HttpStatusException, InterruptedException {
+    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+    try {
+      Thread.sleep(20);
+      int attempt = attempts.merge(item, 1, Integer::sum);
+      if (item == 2 && attempt == 1) {
+        throw new HttpStatusException("Service Unavailable", 503, "");
+      }
+      if (item == 3) {
+        throw new HttpStatusException("Not Found", 404, "");
+      }
+      if (item == 4) {
+        throw new HttpStatusException("Too Many Requests", 429, "");
+      }
+    } finally {
+      running.decrementAndGet();
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void testBatch() {
+    List<Integer> items = Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8);
+    BatchResult<Integer> result = new BatchExecutor<>(items, item -> {
+      try {
+        call(item);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, 3, 2, 10000).run();
+    Assert.assertEquals(Arrays.asList(1, 2, 5, 6, 7, 8), result.getSucceeded());
+    Assert.assertEquals(Arrays.asList(3, 4), Arrays.asList(result.getFailed().keySet().toArray()));
+    Assert.assertEquals(404, ((HttpStatusException) result.getFailed().get(3)).getStatusCode());
+    // server errors are retried, client errors aren't
+    Assert.assertEquals(2, (int) attempts.get(2));
+    Assert.assertEquals(1, (int) attempts.get(3));
+    Assert.assertEquals(2, (int) attempts.get(4));
+    Assert.assertTrue(maxRunning.get() <= 3);
+  }
+}
@@ -0,0 +1,61 @@
+package fr.delthas.skype;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+@SuppressWarnings({"javadoc", "static-method"})
+public class TestBroadcast {
+
+  @Test
+  public void testTemplateMatchesFormat() {
+    String[] headers = {"Content-Type: application/user+xml", "Message-Type: RichText"};
+    FormattedMessage.Template template = FormattedMessage.template("8:self;epid={1}", "Messaging: 2.0", "héllo", headers);
+    for (String receiver : Arrays.asList("8:alice", "8:élève", "19:group@thread.skype")) {
+      String message = FormattedMessage.format("8:self;epid={1}", receiver, "Messaging: 2.0", "héllo", headers);
+      Assert.assertEquals(message, template.format(receiver));
+      Assert.assertEquals(message.getBytes(StandardCharsets.UTF_8).length, template.size(receiver));
+      Assert.assertEquals(receiver, FormattedMessage.parseMessage(template.format(receiver)).receiver);
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testStopsAfterWindowTimeout() throws Exception {
+    Skype skype = new Skype("self", "password");
+    skype.setSendWindow(2, 200);
+    NotifConnector connector = new NotifConnector(skype, "self", "password");
+    List<User> recipients = Arrays.asList(new User(skype, "a"), new User(skype, "b"), new User(skype, "c"), new User(skype, "d"),
+            new User(skype, "e"));
+    // not connected: the first messages are queued and never acknowledged, so the window stays full
+    List<CompletableFuture<Void>> futures = connector.broadcastMessage(recipients, "hello");
+    Assert.assertEquals(5, futures.size());
+    Assert.assertFalse(futures.get(0).isDone());
+    Assert.assertFalse(futures.get(1).isDone());
+    // the remaining messages fail without waiting for the window again
+    for (CompletableFuture<Void> future : futures.subList(2, 5)) {
+      Assert.assertTrue(future.isCompletedExceptionally());
+      try {
+        future.join();
+        Assert.fail();
+      } catch (CompletionException e) {
+        Assert.assertTrue(e.getCause() instanceof TimeoutException);
+      }
+    }
+    Assert.assertSame(cause(futures.get(3)), cause(futures.get(4)));
+  }
+
+  private static Throwable cause(CompletableFuture<Void> future) {
+    try {
+      future.join();
+      return null;
+    } catch (CompletionException e) {
+      return e.getCause();
+    }
+  }
+}
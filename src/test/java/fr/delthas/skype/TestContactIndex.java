@@ -0,0 +1,55 @@
+package fr.delthas.skype;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+@SuppressWarnings({"javadoc", "static-method"})
+public class TestContactIndex {
+
+  private final Skype skype = new Skype("self", "password");
+  private final User alice = new User(skype, "alice");
+  private final User bob = new User(skype, "bob");
+  private final User carol = new User(skype, "carol");
+  private final ContactIndex index = new ContactIndex();
+
+  private void setPresence(User user, Presence presence) {
+    synchronized (user) {
+      Presence oldPresence = user.getPresence();
+      user.setPresence(presence, false);
+      index.presenceChanged(user, oldPresence, presence);
+    }
+  }
+
+  @Test
+  public void testIndexedByPresence() {
+    index.add(alice);
+    index.add(bob);
+    Assert.assertEquals(new HashSet<>(Arrays.asList(alice, bob)), new HashSet<>(index.getContacts()));
+    Assert.assertEquals(2, index.getCount(Presence.OFFLINE));
+    setPresence(alice, Presence.ONLINE);
+    setPresence(bob, Presence.AWAY);
+    // users that aren't contacts aren't indexed
+    setPresence(carol, Presence.ONLINE);
+    Assert.assertEquals(Collections.singletonList(alice), index.getContacts(Presence.ONLINE));
+    Assert.assertEquals(Collections.singletonList(bob), index.getContacts(Presence.AWAY));
+    Assert.assertEquals(0, index.getCount(Presence.OFFLINE));
+  }
+
+  @Test
+  public void testAddAndRemoveUseCurrentPresence() {
+    setPresence(alice, Presence.BUSY);
+    index.add(alice);
+    // adding twice doesn't index twice
+    index.add(alice);
+    Assert.assertEquals(1, index.getCount(Presence.BUSY));
+    index.remove(alice);
+    Assert.assertEquals(0, index.getCount(Presence.BUSY));
+    Assert.assertTrue(index.getContacts().isEmpty());
+    setPresence(alice, Presence.ONLINE);
+    Assert.assertEquals(0, index.getCount(Presence.ONLINE));
+  }
+}
@@ -0,0 +1,67 @@
+package fr.delthas.skype;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+@SuppressWarnings({"javadoc", "static-method"})
+public class TestDecodePipeline {
+
+  private final CountDownLatch slowDecode = new CountDownLatch(1);
+  private final List<String> handled = new ArrayList<>();
+
+  private DecodePipeline<String> createPipeline(boolean perKeyOrder) {
+    return new DecodePipeline<>(16, perKeyOrder, item -> {
+      if (item.equals("a1")) {
+        try {
+          slowDecode.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }, handled::add);
+  }
+
+  private void submitAll(DecodePipeline<String> pipeline) {
+    pipeline.submit("a1", "a");
+    pipeline.submit("b1", "b");
+    pipeline.submit("x", null);
+    pipeline.submit("b2", "b");
+  }
+
+  private void handleUntil(DecodePipeline<String> pipeline, int count) throws Exception {
+    while (handled.size() < count) {
+      if (!pipeline.handleReady()) {
+        pipeline.awaitDecoded();
+      }
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testPerKeyOrder() throws Exception {
+    DecodePipeline<String> pipeline = createPipeline(true);
+    submitAll(pipeline);
+    handleUntil(pipeline, 1);
+    // b1 passes the slow a1, but the barrier waits for it
+    pipeline.handleReady();
+    Assert.assertEquals(Arrays.asList("b1"), handled);
+    slowDecode.countDown();
+    handleUntil(pipeline, 4);
+    Assert.assertEquals(Arrays.asList("b1", "a1", "x", "b2"), handled);
+    Assert.assertTrue(pipeline.isEmpty());
+  }
+
+  @Test(timeout = 10000)
+  public void testGlobalOrder() throws Exception {
+    DecodePipeline<String> pipeline = createPipeline(false);
+    submitAll(pipeline);
+    Assert.assertFalse(pipeline.handleReady());
+    slowDecode.countDown();
+    handleUntil(pipeline, 4);
+    Assert.assertEquals(Arrays.asList("a1", "b1", "x", "b2"), handled);
+  }
+}
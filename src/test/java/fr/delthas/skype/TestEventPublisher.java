@@ -0,0 +1,79 @@
+package fr.delthas.skype;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@SuppressWarnings({"javadoc", "static-method"})
+public class TestEventPublisher {
+
+  private static final class RecordingSubscriber implements EventPublisher.Subscriber<String> {
+    private final List<String> received = new ArrayList<>();
+    private EventPublisher.Subscription subscription;
+    private Throwable error;
+
+    @Override
+    public void onSubscribe(EventPublisher.Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(String item) {
+      received.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+    }
+
+    @Override
+    public void onComplete() {}
+  }
+
+  @Test
+  public void testDeliversOnlyRequested() {
+    EventPublisher<String> publisher = new EventPublisher<>(s -> s, EventPublisher.OverflowStrategy.DROP_OLDEST);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber, 2, EventPublisher.OverflowStrategy.DROP_OLDEST);
+    publisher.publish("a");
+    Assert.assertTrue(subscriber.received.isEmpty());
+    subscriber.subscription.request(1);
+    Assert.assertEquals(Arrays.asList("a"), subscriber.received);
+    publisher.publish("b");
+    publisher.publish("c");
+    publisher.publish("d");
+    subscriber.subscription.request(Long.MAX_VALUE);
+    Assert.assertEquals(Arrays.asList("a", "c", "d"), subscriber.received);
+    publisher.publish("e");
+    Assert.assertEquals(Arrays.asList("a", "c", "d", "e"), subscriber.received);
+  }
+
+  @Test
+  public void testLatestPerKey() {
+    EventPublisher<String> publisher = new EventPublisher<>(s -> s.charAt(0), EventPublisher.OverflowStrategy.LATEST_PER_KEY);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    publisher.publish("a1");
+    publisher.publish("b1");
+    publisher.publish("a2");
+    subscriber.subscription.request(10);
+    Assert.assertEquals(Arrays.asList("a2", "b1"), subscriber.received);
+  }
+
+  @Test
+  public void testCancelAndInvalidRequest() {
+    EventPublisher<String> publisher = new EventPublisher<>(s -> s, EventPublisher.OverflowStrategy.DROP_LATEST);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    subscriber.subscription.request(0);
+    Assert.assertTrue(subscriber.error instanceof IllegalArgumentException);
+    Assert.assertFalse(publisher.hasSubscribers());
+    publisher.publish("a");
+    subscriber.subscription.request(1);
+    Assert.assertTrue(subscriber.received.isEmpty());
+  }
+}
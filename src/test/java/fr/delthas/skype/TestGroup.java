@@ -0,0 +1,55 @@
+package fr.delthas.skype;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+@SuppressWarnings({"javadoc", "static-method"})
+public class TestGroup {
+
+  private final Skype skype = new Skype("self", "password");
+  private final User alice = new User(skype, "alice");
+  private final User bob = new User(skype, "bob");
+  private final Group group = new Group(skype, "19:group@thread.skype");
+
+  @Test
+  public void testStaleDeltasIgnored() {
+    group.applySnapshot("topic", Collections.singletonList(new Pair<>(alice, Role.ADMIN)), 100);
+    group.applyUsersAdded(Collections.singletonList(bob), 200);
+    Assert.assertEquals(Arrays.asList(alice, bob), group.getUsers());
+    Assert.assertEquals(Role.USER, group.getRole(bob));
+    // received out of order: older than the last applied update
+    group.applyUsersRemoved(Collections.singletonList(bob), 150);
+    group.applyTopicChanged("old topic", 199);
+    Assert.assertEquals(Arrays.asList(alice, bob), group.getUsers());
+    Assert.assertEquals("topic", group.getTopic());
+    group.applyTopicChanged("new topic", 300);
+    Assert.assertEquals("new topic", group.getTopic());
+    // updates without a time are always applied
+    group.applyRolesChanged(Collections.singletonList(new Pair<>(bob, Role.ADMIN)), -1);
+    Assert.assertEquals(Role.ADMIN, group.getRole(bob));
+  }
+
+  @Test
+  public void testStaleSnapshotIgnored() {
+    group.applySnapshot("topic", Collections.singletonList(new Pair<>(alice, Role.ADMIN)), 100);
+    group.applyUsersAdded(Collections.singletonList(bob), 200);
+    group.applySnapshot("old topic", Collections.singletonList(new Pair<>(alice, Role.ADMIN)), 150);
+    Assert.assertEquals(Arrays.asList(alice, bob), group.getUsers());
+    Assert.assertEquals("topic", group.getTopic());
+    group.applySnapshot("newer topic", Collections.singletonList(new Pair<>(bob, Role.ADMIN)), 250);
+    Assert.assertEquals(Collections.singletonList(bob), group.getUsers());
+    Assert.assertEquals("newer topic", group.getTopic());
+  }
+
+  @Test
+  public void testSnapshotReplacesUnloadedState() {
+    // deltas received before the group is loaded only give a partial state
+    group.applyUsersAdded(Collections.singletonList(bob), 200);
+    group.applySnapshot("topic", Collections.singletonList(new Pair<>(alice, Role.ADMIN)), 100);
+    Assert.assertEquals(Collections.singletonList(alice), group.getUsers());
+    Assert.assertTrue(group.isLoaded());
+  }
+}
@@ -0,0 +1,78 @@
+package fr.delthas.skype;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@SuppressWarnings({"javadoc", "static-method"})
+public class TestGroupMembers {
+
+  private final Skype skype = new Skype("self", "password");
+  private final User alice = new User(skype, "alice");
+  private final User bob = new User(skype, "bob");
+  private final User carol = new User(skype, "carol");
+
+  @Test
+  public void testLookup() {
+    GroupMembers members = GroupMembers.of(Arrays.asList(new Pair<>(alice, Role.ADMIN), new Pair<>(bob, Role.USER)));
+    Assert.assertEquals(Role.ADMIN, members.getRole(alice));
+    Assert.assertEquals(Role.USER, members.getRole(bob));
+    Assert.assertNull(members.getRole(carol));
+    Assert.assertTrue(members.contains(bob));
+    Assert.assertFalse(members.contains(carol));
+    Assert.assertEquals(Arrays.asList(alice, bob), members.getUsers());
+    Assert.assertEquals(Collections.singletonList(alice), members.getUsers(Role.ADMIN));
+    Assert.assertEquals(Collections.singletonList(bob), members.getUsers(Role.USER));
+  }
+
+  @Test
+  public void testUpdatesAreCopies() {
+    GroupMembers members = GroupMembers.of(Collections.singletonList(new Pair<>(alice, Role.USER)));
+    List<User> snapshot = members.getUsers();
+
+    GroupMembers added = members.with(bob, Role.USER);
+    Assert.assertEquals(Arrays.asList(alice, bob), added.getUsers());
+    Assert.assertEquals(Collections.singletonList(alice), snapshot);
+    Assert.assertFalse(members.contains(bob));
+
+    GroupMembers promoted = added.with(alice, Role.ADMIN);
+    Assert.assertEquals(Role.ADMIN, promoted.getRole(alice));
+    // changing a role keeps the position of the user
+    Assert.assertEquals(Arrays.asList(alice, bob), promoted.getUsers());
+    Assert.assertEquals(Collections.singletonList(alice), promoted.getUsers(Role.ADMIN));
+
+    GroupMembers removed = promoted.without(alice);
+    Assert.assertEquals(Collections.singletonList(bob), removed.getUsers());
+    Assert.assertSame(removed, removed.without(carol));
+    Assert.assertSame(removed, removed.with(bob, Role.USER));
+  }
+
+  @Test
+  public void testBulkUpdates() {
+    GroupMembers members = GroupMembers.of(Collections.singletonList(new Pair<>(alice, Role.ADMIN)));
+
+    GroupMembers added = members.withAll(Arrays.asList(alice, bob, carol), Role.USER);
+    Assert.assertEquals(Arrays.asList(alice, bob, carol), added.getUsers());
+    // existing members keep their role
+    Assert.assertEquals(Role.ADMIN, added.getRole(alice));
+    Assert.assertSame(added, added.withAll(Arrays.asList(bob, carol), Role.ADMIN));
+
+    GroupMembers promoted = added.withRoles(Arrays.asList(new Pair<>(bob, Role.ADMIN), new Pair<>(new User(skype, "dave"), Role.ADMIN)));
+    Assert.assertEquals(Arrays.asList(alice, bob), promoted.getUsers(Role.ADMIN));
+    Assert.assertFalse(promoted.contains(new User(skype, "dave")));
+    Assert.assertSame(promoted, promoted.withRoles(Collections.singletonList(new Pair<>(alice, Role.ADMIN))));
+
+    GroupMembers removed = promoted.withoutAll(Arrays.asList(alice, carol));
+    Assert.assertEquals(Collections.singletonList(bob), removed.getUsers());
+    Assert.assertEquals(Arrays.asList(alice, bob, carol), promoted.getUsers());
+    Assert.assertSame(removed, removed.withoutAll(Collections.singletonList(carol)));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testSnapshotsAreImmutable() {
+    GroupMembers.EMPTY.with(alice, Role.USER).getUsersWithRoles().add(new Pair<>(bob, Role.USER));
+  }
+}
@@ -0,0 +1,38 @@
+package fr.delthas.skype;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings({"javadoc", "static-method"})
+public class TestMessageDeduplicator {
+
+  private static final long SECOND = 1000000000L;
+  private final MessageDeduplicator deduplicator = new MessageDeduplicator(10000);
+
+  @Test
+  public void testDuplicatesPerConversation() {
+    Assert.assertFalse(deduplicator.isDuplicate("a", "1", 0));
+    Assert.assertFalse(deduplicator.isDuplicate("a", "2", SECOND));
+    Assert.assertTrue(deduplicator.isDuplicate("a", "1", 2 * SECOND));
+    // ids are only compared within a conversation
+    Assert.assertFalse(deduplicator.isDuplicate("b", "1", 2 * SECOND));
+  }
+
+  @Test
+  public void testIdsExpire() {
+    Assert.assertFalse(deduplicator.isDuplicate("a", "1", 0));
+    Assert.assertFalse(deduplicator.isDuplicate("a", "2", 5 * SECOND));
+    Assert.assertFalse(deduplicator.isDuplicate("a", "1", 11 * SECOND));
+    Assert.assertTrue(deduplicator.isDuplicate("a", "2", 12 * SECOND));
+  }
+
+  @Test
+  public void testOldestIdsForgottenWhenFull() {
+    for (int i = 0; i < 256; i++) {
+      Assert.assertFalse(deduplicator.isDuplicate("a", Integer.toString(i), 0));
+    }
+    Assert.assertFalse(deduplicator.isDuplicate("a", "256", 0));
+    Assert.assertFalse(deduplicator.isDuplicate("a", "0", 0));
+    Assert.assertTrue(deduplicator.isDuplicate("a", "255", 0));
+  }
+}
@@ -0,0 +1,51 @@
+package fr.delthas.skype;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@SuppressWarnings({"javadoc", "static-method"})
+public class TestMessageHistory {
+
+  private final Skype skype = new Skype("self", "password");
+  private final User alice = new User(skype, "alice");
+  private final User bob = new User(skype, "bob");
+
+  private static List<String> messages(List<ChatMessage> chatMessages) {
+    return chatMessages.stream().map(ChatMessage::getMessage).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testRingWrapsAround() {
+    MessageHistory history = new MessageHistory(3, 1000);
+    for (int i = 1; i <= 5; i++) {
+      history.add(alice, alice, "m" + i, i);
+    }
+    Assert.assertEquals(Arrays.asList("m3", "m4", "m5"), messages(history.get(alice, 10)));
+    Assert.assertEquals(Arrays.asList("m4", "m5"), messages(history.get(alice, 2)));
+    Assert.assertEquals(5, history.get(alice, 1).get(0).getTime());
+    Assert.assertEquals(6, history.getTotalChars());
+    Assert.assertTrue(history.get(bob, 10).isEmpty());
+  }
+
+  @Test
+  public void testCapEvictsLeastRecentlyWrittenConversation() {
+    MessageHistory history = new MessageHistory(10, 10);
+    history.add(alice, alice, "aaaa", 1);
+    history.add(bob, bob, "bbbb", 2);
+    history.add(alice, alice, "cccc", 3);
+    // bob's conversation was written to least recently
+    history.add(alice, bob, "dd", 4);
+    Assert.assertEquals(10, history.getTotalChars());
+    Assert.assertTrue(history.get(bob, 10).isEmpty());
+    Assert.assertEquals(Arrays.asList("aaaa", "cccc", "dd"), messages(history.get(alice, 10)));
+
+    history.add(bob, bob, "eeeee", 5);
+    Assert.assertEquals(Arrays.asList("dd"), messages(history.get(alice, 10)));
+    Assert.assertEquals(Arrays.asList("eeeee"), messages(history.get(bob, 10)));
+    Assert.assertEquals(7, history.getTotalChars());
+  }
+}
@@ -0,0 +1,58 @@
+package fr.delthas.skype;
+
+import fr.delthas.skype.OutboundLanes.Lane;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@SuppressWarnings({"javadoc", "static-method"})
+public class TestOutboundLanes {
+
+  private final OutboundLanes<String> lanes = new OutboundLanes<>(2, 4, 1);
+
+  @Test(timeout = 10000)
+  public void testControlFirstThenWeighted() throws InterruptedException {
+    for (int i = 1; i <= 6; i++) {
+      lanes.add(Lane.INTERACTIVE, "i" + i);
+      lanes.add(Lane.BULK, "b" + i);
+    }
+    lanes.add(Lane.CONTROL, "c1");
+    lanes.add(Lane.CONTROL, "c2");
+    Assert.assertEquals(14, lanes.size());
+    Assert.assertEquals(Arrays.asList("c1", "c2", "i1", "i2", "i3", "i4", "b1"), lanes.take(7));
+    lanes.add(Lane.CONTROL, "c3");
+    // control packets overtake the others, the cycle then resumes
+    Assert.assertEquals(Arrays.asList("c3", "i5", "i6"), lanes.take(3));
+    // an empty lane gives its turns to the other one
+    Assert.assertEquals(Arrays.asList("b2", "b3", "b4", "b5", "b6"), lanes.take(10));
+    Assert.assertEquals(0, lanes.size());
+  }
+
+  @Test(timeout = 10000)
+  public void testPutBlocksWhileFull() throws InterruptedException {
+    lanes.put(Lane.BULK, "b1");
+    lanes.put(Lane.BULK, "b2");
+    // the control lane is unbounded
+    lanes.put(Lane.CONTROL, "c1");
+    lanes.put(Lane.CONTROL, "c2");
+    lanes.put(Lane.CONTROL, "c3");
+    CountDownLatch queued = new CountDownLatch(1);
+    Thread producer = new Thread(() -> {
+      try {
+        lanes.put(Lane.BULK, "b3");
+        queued.countDown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    producer.start();
+    Assert.assertFalse(queued.await(100, TimeUnit.MILLISECONDS));
+    Assert.assertEquals(Arrays.asList("c1", "c2", "c3", "b1"), lanes.take(4));
+    Assert.assertTrue(queued.await(5, TimeUnit.SECONDS));
+    Assert.assertEquals(Arrays.asList("b2", "b3"), lanes.clear());
+    producer.join();
+  }
+}
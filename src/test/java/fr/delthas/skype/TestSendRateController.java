@@ -0,0 +1,52 @@
+package fr.delthas.skype;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings({"javadoc", "static-method"})
+public class TestSendRateController {
+
+  private static final long SECOND = 1000000000L;
+  // starts far from 0, as System.nanoTime() can
+  private long now = Long.MIN_VALUE / 2;
+  private final SendRateController controller = new SendRateController(1, 10, () -> now);
+
+  @Test
+  public void testPacesAtMaxRate() {
+    Assert.assertEquals(0, controller.reserve("a"));
+    Assert.assertEquals(SECOND / 10, controller.reserve("b"));
+    Assert.assertEquals(2 * SECOND / 10, controller.reserve("a"));
+    now += SECOND;
+    // no credit is accumulated while idle
+    Assert.assertEquals(0, controller.reserve("a"));
+  }
+
+  @Test
+  public void testThrottleHalvesRateAndBacksOff() {
+    controller.throttled("a");
+    // a burst of rejections only halves the rate once
+    controller.throttled("b");
+    Assert.assertEquals(5, controller.getRate(), 0);
+    // global pause of one second
+    Assert.assertEquals(SECOND, controller.reserve("c"));
+    controller.throttled("a");
+    // a's backoff doubled, b's backoff is still the initial one
+    Assert.assertEquals(2 * SECOND, controller.reserve("a"));
+    Assert.assertEquals(SECOND + 2 * SECOND / 5, controller.reserve("b"));
+  }
+
+  @Test
+  public void testRampsUpAfterAcknowledgments() {
+    controller.throttled("a");
+    Assert.assertEquals(5, controller.getRate(), 0);
+    controller.acknowledged("a");
+    Assert.assertEquals(5.2, controller.getRate(), 1e-9);
+    for (int i = 0; i < 100; i++) {
+      controller.acknowledged("a");
+    }
+    Assert.assertEquals(10, controller.getRate(), 0);
+    now += 2 * SECOND;
+    // the backoff of a ended with its acknowledgment
+    Assert.assertEquals(0, controller.reserve("a"));
+  }
+}
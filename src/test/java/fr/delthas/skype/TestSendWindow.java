@@ -0,0 +1,79 @@
+package fr.delthas.skype;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+@SuppressWarnings({"javadoc", "static-method"})
+public class TestSendWindow {
+
+  private final SendWindow<String> window = new SendWindow<>(2);
+
+  @Test
+  public void testReleasedOnceOnAcknowledgmentThenTimeout() throws InterruptedException {
+    Assert.assertTrue(window.acquire("a", 0));
+    Assert.assertTrue(window.acquire("b", 0));
+    Assert.assertFalse(window.acquire("c", 0));
+    window.track(1, "a");
+    Assert.assertEquals("a", window.get(1));
+    // acknowledged
+    Assert.assertTrue(window.untrack(1, "a"));
+    Assert.assertTrue(window.release("a"));
+    Assert.assertNull(window.get(1));
+    // then timed out: the slot was already released
+    Assert.assertFalse(window.untrack(1, "a"));
+    Assert.assertFalse(window.release("a"));
+    Assert.assertTrue(window.acquire("c", 0));
+    Assert.assertFalse(window.acquire("d", 0));
+  }
+
+  @Test
+  public void testRetryKeepsSlot() throws InterruptedException {
+    Assert.assertTrue(window.acquire("a", 0));
+    Assert.assertTrue(window.acquire("b", 0));
+    window.track(1, "a");
+    // throttled: written again later with another transaction id
+    Assert.assertTrue(window.untrack(1, "a"));
+    window.track(2, "a");
+    Assert.assertFalse(window.acquire("c", 0));
+    // timed out
+    Assert.assertTrue(window.untrack(2, "a"));
+    Assert.assertTrue(window.release("a"));
+    Assert.assertTrue(window.acquire("c", 0));
+  }
+
+  @Test
+  public void testDisconnectionReleasesTrackedSlots() throws InterruptedException {
+    Assert.assertTrue(window.acquire("a", 0));
+    Assert.assertTrue(window.acquire("b", 0));
+    window.track(1, "a");
+    window.track(2, "b");
+    window.forEachTracked((transactionId, packet) -> {
+      window.untrack(transactionId, packet);
+      window.release(packet);
+    });
+    Assert.assertNull(window.get(1));
+    Assert.assertTrue(window.acquire("c", 0));
+    Assert.assertTrue(window.acquire("d", 0));
+  }
+
+  @Test(timeout = 10000)
+  public void testAcquireBlocksUntilReleased() throws Exception {
+    Assert.assertTrue(window.acquire("a", 0));
+    Assert.assertTrue(window.acquire("b", 0));
+    CompletableFuture<Boolean> acquired = CompletableFuture.supplyAsync(() -> {
+      try {
+        return window.acquire("c", 5000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    });
+    Thread.sleep(100);
+    Assert.assertFalse(acquired.isDone());
+    window.release("b");
+    Assert.assertTrue(acquired.get(5, TimeUnit.SECONDS));
+  }
+}
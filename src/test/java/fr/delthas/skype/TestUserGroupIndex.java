@@ -0,0 +1,48 @@
+package fr.delthas.skype;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@SuppressWarnings({"javadoc", "static-method"})
+public class TestUserGroupIndex {
+
+  private final Skype skype = new Skype("self", "password");
+  private final User alice = new User(skype, "alice");
+  private final User bob = new User(skype, "bob");
+  private final Group first = new Group(skype, "19:first@thread.skype");
+  private final Group second = new Group(skype, "19:second@thread.skype");
+  private final UserGroupIndex index = new UserGroupIndex();
+
+  @Test
+  public void testJoinAndLeave() {
+    Assert.assertTrue(index.get(alice).isEmpty());
+    index.joined(alice, first);
+    index.joined(alice, second);
+    // joining twice doesn't list the group twice
+    index.joined(alice, first);
+    index.joined(bob, second);
+    Assert.assertEquals(Arrays.asList(first, second), index.get(alice));
+    Assert.assertEquals(Collections.singletonList(second), index.get(bob));
+    index.left(alice, first);
+    // leaving a group the user isn't in is ignored
+    index.left(bob, first);
+    Assert.assertEquals(Collections.singletonList(second), index.get(alice));
+    Assert.assertEquals(Collections.singletonList(second), index.get(bob));
+    index.left(alice, second);
+    Assert.assertTrue(index.get(alice).isEmpty());
+  }
+
+  @Test
+  public void testListsAreSnapshots() {
+    index.joined(alice, first);
+    List<Group> snapshot = index.get(alice);
+    index.joined(alice, second);
+    index.left(alice, first);
+    Assert.assertEquals(Collections.singletonList(first), snapshot);
+    Assert.assertEquals(Collections.singletonList(second), index.get(alice));
+  }
+}